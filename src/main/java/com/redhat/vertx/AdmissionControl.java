@@ -0,0 +1,248 @@
+package com.redhat.vertx;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.CompletableEmitter;
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Limits the number of documents an {@link Engine} processes at once.  Documents beyond the limit
+ * wait in a bounded queue, or are turned away, according to the {@link Overflow} policy.  The limit may be
+ * changed while running, as by an adaptive limiter.
+ *
+ * A waiter is resumed on the thread which made room for it.  When its work finishes at once, as it may, that
+ * thread goes on to the next waiter in a loop rather than by recursion, so a long queue can't overflow the stack.
+ *
+ * Configured from the engine's system config:
+ * <ul>
+ *     <li><code>engine.admission.maxInFlight</code> - documents processed at once, 0 (the default) for no limit</li>
+ *     <li><code>engine.admission.maxQueued</code> - documents waiting for a turn, default 1000</li>
+ *     <li><code>engine.admission.overflow</code> - <code>reject</code>, <code>wait</code> (the default),
+ *     or <code>drop-oldest</code></li>
+ * </ul>
+ */
+public class AdmissionControl {
+    public enum Overflow {
+        /** Never queue; turn away documents beyond the in-flight limit */
+        REJECT,
+        /** Queue documents beyond the in-flight limit, and turn away new ones when the queue is full */
+        WAIT,
+        /** Queue documents beyond the in-flight limit, and turn away the longest-waiting one when the queue is full */
+        DROP_OLDEST;
+
+        public static Overflow parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT).replace('-', '_'));
+        }
+    }
+
+    private final String name;
+    private int maxInFlight;
+    private final int maxQueued;
+    private final Overflow overflow;
+    private final Deque<Waiter> waiting = new ArrayDeque<>();
+    private final Queue<Waiter> handoffs = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger handingOff = new AtomicInteger();
+    private int inFlight;
+    private long admitted;
+    private long rejected;
+    private long dropped;
+    private long dequeued;
+    private long queueNanos;
+    private long maxQueueNanos;
+
+    public AdmissionControl(int maxInFlight, int maxQueued, Overflow overflow) {
+        this("Engine", maxInFlight, maxQueued, overflow);
+    }
+
+    /**
+     * @param name Names what's being protected, in the message of a {@link RejectedExecutionException}
+     */
+    public AdmissionControl(String name, int maxInFlight, int maxQueued, Overflow overflow) {
+        this.name = name;
+        this.maxInFlight = (maxInFlight <= 0) ? Integer.MAX_VALUE : maxInFlight;
+        this.maxQueued = Math.max(0, maxQueued);
+        this.overflow = overflow;
+    }
+
+    static AdmissionControl fromConfig(Engine engine) {
+        return new AdmissionControl(
+                engine.getConfigInteger("engine.admission.maxInFlight", 0),
+                engine.getConfigInteger("engine.admission.maxQueued", 1000),
+                Overflow.parse(engine.getConfigString("engine.admission.overflow", "wait")));
+    }
+
+    /**
+     * @param work The work to do once admitted
+     * @return The work, deferred until there is room for it, and failing with {@link RejectedExecutionException}
+     * if it's turned away
+     */
+    public <T> Single<T> admit(Single<T> work) {
+        return Single.defer(() -> {
+            AtomicBoolean holding = new AtomicBoolean();
+            return acquire(holding)
+                    .andThen(work)
+                    .doFinally(() -> {
+                        if (holding.getAndSet(false)) {
+                            release();
+                        }
+                    });
+        });
+    }
+
+    private Completable acquire(AtomicBoolean holding) {
+        return Completable.create(emitter -> {
+            Waiter turnedAway = null;
+            boolean admittedNow = false;
+            boolean rejectedNow = false;
+            Waiter waiter = new Waiter(emitter, holding);
+            synchronized (this) {
+                if (inFlight < maxInFlight) {
+                    inFlight++;
+                    admitted++;
+                    holding.set(true);
+                    admittedNow = true;
+                } else if (overflow == Overflow.REJECT || maxQueued == 0
+                        || (overflow == Overflow.WAIT && waiting.size() >= maxQueued)) {
+                    rejected++;
+                    rejectedNow = true;
+                } else {
+                    if (waiting.size() >= maxQueued) {
+                        turnedAway = waiting.pollFirst();
+                        dropped++;
+                    }
+                    waiting.addLast(waiter);
+                }
+            }
+            if (turnedAway != null) {
+                turnedAway.emitter.tryOnError(new RejectedExecutionException("Dropped from the admission queue"));
+            }
+            if (admittedNow) {
+                emitter.onComplete();
+            } else if (rejectedNow) {
+                emitter.tryOnError(new RejectedExecutionException(name + " is at capacity"));
+            } else {
+                emitter.setCancellable(() -> {
+                    synchronized (AdmissionControl.this) {
+                        waiting.remove(waiter);
+                    }
+                });
+            }
+        });
+    }
+
+    private void release() {
+        Waiter next = null;
+        synchronized (this) {
+            if (inFlight > maxInFlight) {
+                // the limit was lowered; let the excess drain before admitting anyone else
+                inFlight--;
+            } else {
+                next = waiting.pollFirst();
+                if (next == null) {
+                    inFlight--;
+                } else {
+                    dequeue(next);
+                }
+            }
+        }
+        if (next != null) {
+            handOff(next);
+        }
+    }
+
+    /**
+     * Resume a waiter which has been given a place.  Only one thread at a time resumes waiters; a release
+     * during the resumption (as when the waiter's work completes synchronously) adds to the queue for the loop
+     * below instead of nesting another call.
+     */
+    private void handOff(Waiter waiter) {
+        handoffs.add(waiter);
+        if (handingOff.getAndIncrement() != 0) {
+            return;
+        }
+        int missed = 1;
+        do {
+            Waiter next;
+            while ((next = handoffs.poll()) != null) {
+                if (next.emitter.isDisposed()) {
+                    // cancelled after it was given its place; pass the place on
+                    if (next.holding.getAndSet(false)) {
+                        release();
+                    }
+                } else {
+                    next.emitter.onComplete();
+                }
+            }
+            missed = handingOff.addAndGet(-missed);
+        } while (missed != 0);
+    }
+
+    private void dequeue(Waiter waiter) {
+        long waited = System.nanoTime() - waiter.enqueued;
+        admitted++;
+        dequeued++;
+        queueNanos += waited;
+        maxQueueNanos = Math.max(maxQueueNanos, waited);
+        waiter.holding.set(true);
+    }
+
+    /**
+     * Changes the limit.  Raising it admits waiters at once; lowering it takes effect as work in flight finishes.
+     *
+     * @param maxInFlight The new limit, or 0 for no limit
+     */
+    public void setMaxInFlight(int maxInFlight) {
+        Deque<Waiter> admittedNow = new ArrayDeque<>();
+        synchronized (this) {
+            this.maxInFlight = (maxInFlight <= 0) ? Integer.MAX_VALUE : maxInFlight;
+            while (inFlight < this.maxInFlight && !waiting.isEmpty()) {
+                Waiter next = waiting.pollFirst();
+                inFlight++;
+                dequeue(next);
+                admittedNow.add(next);
+            }
+        }
+        admittedNow.forEach(this::handOff);
+    }
+
+    public synchronized int getMaxInFlight() {
+        return (maxInFlight == Integer.MAX_VALUE) ? 0 : maxInFlight;
+    }
+
+    /**
+     * @return A snapshot of the limit, in-flight count, queue depth and time spent queued, and counts of
+     * documents admitted and turned away
+     */
+    public synchronized JsonObject metrics() {
+        return new JsonObject()
+                .put("limit", getMaxInFlight())
+                .put("inFlight", inFlight)
+                .put("queued", waiting.size())
+                .put("admitted", admitted)
+                .put("rejected", rejected)
+                .put("dropped", dropped)
+                .put("meanQueueMillis", (dequeued == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(queueNanos / dequeued))
+                .put("maxQueueMillis", TimeUnit.NANOSECONDS.toMillis(maxQueueNanos));
+    }
+
+    private static class Waiter {
+        final CompletableEmitter emitter;
+        final AtomicBoolean holding;
+        final long enqueued = System.nanoTime();
+
+        Waiter(CompletableEmitter emitter, AtomicBoolean holding) {
+            this.emitter = emitter;
+            this.holding = holding;
+        }
+    }
+}
@@ -1,25 +1,40 @@
 package com.redhat.vertx;
 
+import java.time.Duration;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
 
+import com.redhat.vertx.pipeline.ChangeImpact;
 import com.redhat.vertx.pipeline.EventBusMessage;
 import com.redhat.vertx.pipeline.Section;
 import com.redhat.vertx.pipeline.StepExecutor;
+import com.redhat.vertx.pipeline.json.JsonSize;
 import com.redhat.vertx.pipeline.json.YamlParser;
 import com.redhat.vertx.pipeline.templates.JinjaTemplateProcessor;
 import com.redhat.vertx.pipeline.templates.TemplateProcessor;
 import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
 import io.reactivex.Observable;
+import io.reactivex.Scheduler;
 import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.reactivex.subjects.PublishSubject;
+import io.reactivex.subjects.Subject;
 import io.vertx.core.DeploymentOptions;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.RxHelper;
 import io.vertx.reactivex.core.AbstractVerticle;
 import io.vertx.reactivex.core.Vertx;
 import io.vertx.reactivex.core.eventbus.EventBus;
-import io.vertx.reactivex.core.eventbus.Message;
 
 /**
  * Entrypoint for execution of a particular pipeline, container for the entire execution system.
@@ -32,8 +47,16 @@ public class Engine extends AbstractVerticle {
     private StepExecutor pipeline;
     private JsonObject systemConfig;
     private Map<String, ManagedDocument> docCache = new ConcurrentHashMap<>();
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final Map<String, Supplier<JsonObject>> metrics = new ConcurrentHashMap<>();
+    private final Map<Class<?>, Object> services = new ConcurrentHashMap<>();
     private JinjaTemplateProcessor templateProcessor;
     private Completable initComplete;
+    private long documentRetentionMillis;
+    private final AdmissionControl admissionControl;
+    private final WorkerPools workerPools = new WorkerPools(this);
+    private volatile Scheduler scheduler;
+    private boolean ownLogger = true;
 
     public Engine(String pipelineDef) {
         this(pipelineDef, new JsonObject());
@@ -41,6 +64,15 @@ public class Engine extends AbstractVerticle {
 
     public Engine(String pipelineDef, JsonObject systemConfig) {
         this.systemConfig = systemConfig;
+        Duration retention = getConfigDuration("engine.document.retention", null);
+        this.documentRetentionMillis = (retention == null) ? 0 : retention.toMillis();
+        registerMetrics("documents", this::documentMetrics);
+        admissionControl = AdmissionControl.fromConfig(this);
+        registerMetrics("admission", admissionControl::metrics);
+        registerMetrics("workers", workerPools::metrics);
+        templateProcessor = new JinjaTemplateProcessor(
+                getConfigInteger("engine.templates.cacheSize", JinjaTemplateProcessor.DEFAULT_CACHE_SIZE));
+        registerMetrics("templates", templateProcessor::metrics);
         JsonObject jo = new JsonObject(YamlParser.parse(pipelineDef));
         Section outerSection = new Section();
         initComplete = outerSection.init(this, jo);
@@ -55,10 +87,114 @@ public class Engine extends AbstractVerticle {
         return vertx;
     }
 
+    /**
+     * @return A scheduler which runs work on the event loop to which this engine is deployed
+     * @throws IllegalStateException if the engine hasn't been deployed yet
+     */
+    public Scheduler getScheduler() {
+        Scheduler s = scheduler;
+        if (s == null) {
+            throw new IllegalStateException("The engine has no scheduler until it's deployed");
+        }
+        return s;
+    }
+
     public JsonObject getSystemConfig() {
         return systemConfig;
     }
 
+    /**
+     * @param key The name of a system configuration value
+     * @param def The value to return if it isn't configured
+     * @return The configured value as a string
+     */
+    public String getConfigString(String key, String def) {
+        Object o = systemConfig.getValue(key);
+        return (o == null) ? def : o.toString();
+    }
+
+    /**
+     * @return The configured value as an integer, which may be given as a number or a string
+     */
+    public int getConfigInteger(String key, int def) {
+        Object o = systemConfig.getValue(key);
+        return (o instanceof Number) ? ((Number) o).intValue() : (o == null) ? def : Integer.parseInt(o.toString().trim());
+    }
+
+    /**
+     * @return The configured value as a duration, written like a step timeout (e.g. "PT1.5S" or "1.5S")
+     */
+    public Duration getConfigDuration(String key, Duration def) {
+        String s = getConfigString(key, null);
+        return (s == null) ? def : parseDuration(s);
+    }
+
+    /**
+     * @param duration An ISO-8601 duration, with or without the leading "PT"
+     * @return The parsed duration
+     */
+    public static Duration parseDuration(String duration) {
+        duration = duration.trim().toUpperCase();
+        if (!duration.startsWith("PT")) {
+            duration = "PT" + duration;
+        }
+        return Duration.parse(duration);
+    }
+
+    /**
+     * Publish a group of gauges and counters under a name in {@link #getMetrics()}.
+     *
+     * @param name The name under which these metrics appear
+     * @param source Provides a current snapshot of the metrics each time they're read
+     */
+    public void registerMetrics(String name, Supplier<JsonObject> source) {
+        metrics.put(name, source);
+    }
+
+    /**
+     * @return true if metrics are already published under the name
+     */
+    public boolean hasMetrics(String name) {
+        return metrics.containsKey(name);
+    }
+
+    /**
+     * @return A snapshot of all the metrics registered with this engine, by name
+     */
+    public JsonObject getMetrics() {
+        JsonObject snapshot = new JsonObject();
+        metrics.forEach((name, source) -> snapshot.put(name, source.get()));
+        return snapshot;
+    }
+
+    /**
+     * Get an object shared by all the steps of this engine, such as a cache or a connection pool.  A service
+     * which is {@link AutoCloseable} is closed when the engine is undeployed.
+     *
+     * @param type The type of the service, which identifies it
+     * @param factory Creates the service, the first time it's needed
+     * @return The engine's instance of the service
+     */
+    public <T> T getService(Class<T> type, Supplier<? extends T> factory) {
+        Object service = services.get(type);
+        if (service == null) {
+            T created = factory.get();
+            service = services.putIfAbsent(type, created);
+            if (service == null) {
+                service = created;
+            }
+        }
+        return type.cast(service);
+    }
+
+    private JsonObject documentMetrics() {
+        long live = docCache.values().stream().filter(md -> !md.completed).count();
+        return new JsonObject()
+                .put("live", live)
+                .put("cached", docCache.size())
+                .put("retainedBytes", retainedBytes.get());
+    }
+
     public TemplateProcessor getTemplateProcessor() {
         if (templateProcessor == null) {
             templateProcessor = new JinjaTemplateProcessor();
@@ -68,61 +204,244 @@ public class Engine extends AbstractVerticle {
 
     @Override
     public Completable rxStart() {
+        // started on the context to which it's deployed
+        scheduler = RxHelper.scheduler(vertx.getOrCreateContext());
         // TODO: This should probably be something else, or something configurable so we can configure it in tests
-        // TODO: Also, we don't need multiple of these being deployed
+        if (!ownLogger) {
+            return initComplete;
+        }
         DocumentLogger documentLogger = new DocumentLogger();
         return vertx.rxDeployVerticle(documentLogger, new DeploymentOptions().setWorker(true)
                 .setWorkerPoolName("document-logger")).ignoreElement().mergeWith(initComplete);
     }
 
+    @Override
+    public Completable rxStop() {
+        return Completable.fromAction(() -> {
+            workerPools.close();
+            for (Object service : services.values()) {
+                if (service instanceof AutoCloseable) {
+                    ((AutoCloseable) service).close();
+                }
+            }
+        });
+    }
+
+    /**
+     * Run blocking work off the event loop.
+     *
+     * @param poolName The worker pool on which to run the work, sized by "engine.workers.&lt;name&gt;.size"
+     * @param work The work to do, returning null for no result
+     * @return The result of the work
+     */
+    public <T> Maybe<T> executeBlocking(String poolName, Callable<T> work) {
+        return workerPools.execute(poolName, work);
+    }
+
     /**
      *
      * @param executionData The document to process
-     * @return A single which will provide the document (or the outermost section's result) at the end of execution
+     * @return A single which will provide the document (or the outermost section's result) at the end of execution,
+     * or fail with {@link java.util.concurrent.RejectedExecutionException} if admission control turns it away
      */
     public Single<? extends Object> execute(JsonObject executionData) {
-        ManagedDocument managedDocument = new ManagedDocument(executionData);
-        String documentId = managedDocument.documentId;
-        docCache.put(documentId, managedDocument);
+        return execute(executionData, null);
+    }
 
-        return pipeline.executeStep(documentId)
-                .doOnSubscribe(s-> getEventBus().publish(EventBusMessage.DOCUMENT_STARTED, documentId))
-                .switchIfEmpty(Single.just(docCache.get(documentId).document))
-                .doOnSuccess(o -> getEventBus().publish(EventBusMessage.DOCUMENT_COMPLETED, documentId))
-                .doOnError(t -> getEventBus().publish(EventBusMessage.DOCUMENT_COMPLETED, documentId))
-                .doOnDispose(() -> docCache.remove(documentId));
+    /**
+     * Run a finished document through the pipeline again after some of its input has changed, running only the
+     * steps whose templates (directly or through other steps' results) read a changed key.  The other steps'
+     * registered values are kept from the finished document.  If a step which registers under a templated name
+     * has to run, every step runs, as the name (and so what it overwrites) may have changed; the value it
+     * registered before stays in the document under the old name.
+     *
+     * @param previous A document as returned by {@link #execute(JsonObject)}, with its registered values
+     * @param delta The changed input keys and their new values
+     * @return as for {@link #execute(JsonObject)}
+     */
+    public Single<? extends Object> reexecute(JsonObject previous, JsonObject delta) {
+        return Single.defer(() -> {
+            ChangeImpact impact = ChangeImpact.of(pipeline, delta.fieldNames());
+            JsonObject input = previous.copy();
+            input.remove(DOC_UUID);
+            impact.getStaleKeys().forEach(input::remove);
+            return execute(input.mergeIn(delta), impact);
+        });
+    }
+
+    private Single<? extends Object> execute(JsonObject executionData, ChangeImpact impact) {
+        return admissionControl.admit(Single.defer(() -> {
+            ManagedDocument managedDocument = new ManagedDocument(executionData, impact);
+            String documentId = managedDocument.documentId;
+            docCache.put(documentId, managedDocument);
+            retainedBytes.addAndGet(managedDocument.bytes.get());
+
+            return pipeline.executeStep(documentId)
+                    .doOnSubscribe(s -> getEventBus().publish(EventBusMessage.DOCUMENT_STARTED, documentId))
+                    .switchIfEmpty(Single.fromCallable(managedDocument::snapshot))
+                    .doOnSuccess(o -> getEventBus().publish(EventBusMessage.DOCUMENT_COMPLETED, documentId))
+                    .doOnError(t -> getEventBus().publish(EventBusMessage.DOCUMENT_COMPLETED, documentId))
+                    .doFinally(() -> release(managedDocument));
+        }));
+    }
+
+    /**
+     * @return false if the document is being re-executed and the step's inputs haven't changed, true otherwise
+     */
+    public boolean isAffected(String documentId, StepExecutor step) {
+        ManagedDocument managedDocument = docCache.get(documentId);
+        return managedDocument == null || managedDocument.impact == null || managedDocument.impact.isAffected(step);
+    }
+
+    /**
+     * Execute a stream of documents, at most <code>maxConcurrency</code> at a time.  Documents are requested from
+     * upstream only as fast as results are consumed downstream, so a slow consumer slows the reading of input.
+     * A document which fails is reported in its {@link Result} rather than ending the stream.
+     *
+     * @param documents The documents to process
+     * @param maxConcurrency The most documents to process at once
+     * @param ordered true to emit results in the order of the input, false to emit each as soon as it is ready
+     * @return The results of execution
+     */
+    public Flowable<Result> execute(Flowable<JsonObject> documents, int maxConcurrency, boolean ordered) {
+        return executeEach(documents, this::execute, maxConcurrency, ordered);
+    }
+
+    /**
+     * The batch execution behind {@link #execute(Flowable, int, boolean)}, for anything which executes one
+     * document at a time.
+     */
+    static Flowable<Result> executeEach(Flowable<JsonObject> documents,
+                                        Function<JsonObject, Single<? extends Object>> execute,
+                                        int maxConcurrency, boolean ordered) {
+        Function<JsonObject, Flowable<Result>> executeOne = doc -> execute.apply(doc)
+                .<Result>map(output -> Result.success(doc, output))
+                .onErrorReturn(t -> Result.failure(doc, t))
+                .toFlowable();
+        return ordered ?
+                documents.concatMapEager(executeOne, maxConcurrency, 1) :
+                documents.flatMap(executeOne, maxConcurrency);
+    }
+
+    /**
+     * @param ownLogger false if something else deploys the {@link DocumentLogger}, as for the engines of a
+     *                  {@link ShardedEngine}, which share one
+     */
+    void setOwnLogger(boolean ownLogger) {
+        this.ownLogger = ownLogger;
+    }
+
+    /**
+     * Let go of a document once its execution has terminated, either right away or after the configured
+     * "engine.document.retention" period for late {@link #getDocument(String)} callers.
+     */
+    private void release(ManagedDocument managedDocument) {
+        managedDocument.complete();
+        if (documentRetentionMillis > 0) {
+            vertx.setTimer(documentRetentionMillis, id -> forget(managedDocument));
+        } else {
+            forget(managedDocument);
+        }
     }
 
+    private void forget(ManagedDocument managedDocument) {
+        if (docCache.remove(managedDocument.documentId, managedDocument)) {
+            retainedBytes.addAndGet(-managedDocument.bytes.get());
+        }
+    }
+
+    /**
+     * @param documentId The id of a document being processed (or recently processed) by this engine
+     * @return The current version of the document, which later updates leave unchanged, or null if
+     * it's unknown or has been released
+     */
     public JsonObject getDocument(String documentId) {
-        return docCache.get(documentId).document;
+        ManagedDocument managedDocument = docCache.get(documentId);
+        return (managedDocument == null) ? null : managedDocument.snapshot();
+    }
+
+    /**
+     * @param documentId The document to watch
+     * @return the keys of the document as they are set, completing when the document is finished, or
+     * an empty observable if the document isn't (or is no longer) being processed
+     */
+    public Observable<String> getDocumentChanges(String documentId) {
+        ManagedDocument managedDocument = docCache.get(documentId);
+        return (managedDocument == null) ? Observable.empty() : managedDocument.changes;
     }
 
+    /**
+     * A document under construction.  The document is never modified in place: each update installs a new
+     * version, copied from the previous one, with a compare-and-set.  A reader holds whichever version it got,
+     * consistent and unchanging, without taking a lock, and writers never wait on readers.
+     */
     private class ManagedDocument {
-        final JsonObject document;
+        private final AtomicReference<JsonObject> document;
         final String documentId;
-        private final Observable<Message<Object>> completedChanges;
+        final ChangeImpact impact;
+        private final Subject<String> changes = PublishSubject.<String>create().toSerialized();
+        // The estimated size, kept up to date as keys are set so the metrics needn't walk the document
+        final AtomicLong bytes;
+        volatile boolean completed;
 
-        ManagedDocument(JsonObject document) {
-            this.document = document;
+        ManagedDocument(JsonObject document, ChangeImpact impact) {
             documentId = UUID.randomUUID().toString();
-            document.put(DOC_UUID, documentId);
-
-            this.completedChanges = getEventBus().consumer(EventBusMessage.DOCUMENT_CHANGED).toObservable()
-                            .filter(delta -> delta.headers().get("uuid").equals(documentId)).publish().autoConnect();
+            this.impact = impact;
+            this.document = new AtomicReference<>(copyOf(document).put(DOC_UUID, documentId));
+            this.bytes = new AtomicLong(JsonSize.estimate(this.document.get()));
         }
 
+        /**
+         * @return The current version of the document, which must not be modified
+         */
+        JsonObject snapshot() {
+            return document.get();
+        }
 
         Completable update(JsonObject entry) {
             final var key = entry.size() > 0 ? entry.iterator().next().getKey() : "null";
             final var deliveryOptions = new DeliveryOptions().addHeader("uuid", documentId);
 
-            synchronized (document) {
-                document.mergeIn(entry);
-            }
+            JsonObject current;
+            JsonObject next;
+            do {
+                current = document.get();
+                next = copyOf(current).mergeIn(entry);
+            } while (!document.compareAndSet(current, next));
+            long delta = estimate(next, entry.fieldNames()) - estimate(current, entry.fieldNames());
+            bytes.addAndGet(delta);
+            retainedBytes.addAndGet(delta);
+            changes.onNext(key);
             getEventBus().publish(EventBusMessage.DOCUMENT_CHANGED, key, deliveryOptions);
             return Completable.complete();
         }
+
+        void complete() {
+            completed = true;
+            changes.onComplete();
+        }
     }
+
+    /**
+     * @return The estimated size of the given keys of the document and their values
+     */
+    private static long estimate(JsonObject document, Set<String> keys) {
+        long size = 0;
+        for (String key : keys) {
+            if (document.containsKey(key)) {
+                size += JsonSize.estimate(key) + JsonSize.estimate(document.getValue(key));
+            }
+        }
+        return size;
+    }
+
+    /**
+     * A shallow copy: the top-level keys are copied, and the values (which the engine never modifies) are shared.
+     */
+    private static JsonObject copyOf(JsonObject json) {
+        return new JsonObject(new LinkedHashMap<>(json.getMap()));
+    }
+
     public Completable updateDocument(String documentId, JsonObject entry) {
         return docCache.get(documentId).update(entry);
     }
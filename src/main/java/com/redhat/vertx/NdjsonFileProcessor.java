@@ -0,0 +1,73 @@
+package com.redhat.vertx;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.reactivex.Completable;
+import io.reactivex.Single;
+import io.vertx.core.file.OpenOptions;
+import io.vertx.core.json.Json;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.file.AsyncFile;
+import io.vertx.reactivex.core.file.FileSystem;
+import io.vertx.reactivex.core.parsetools.RecordParser;
+
+/**
+ * Runs each record of a newline-delimited JSON file through an {@link Engine}, writing the results, one per
+ * line and in the order of the input, to another file.  Neither file is ever held in memory: the input is read
+ * only as fast as the engine and the output file keep up, with at most <code>maxConcurrency</code> documents
+ * in the engine at once.
+ *
+ * A record which fails (including one which isn't valid JSON) is written as <code>{"error": "..."}</code>, and
+ * processing continues.  Blank lines are skipped.
+ */
+public class NdjsonFileProcessor {
+    private static final String NEWLINE = "\n";
+    private final Engine engine;
+    private final int maxConcurrency;
+
+    public NdjsonFileProcessor(Engine engine, int maxConcurrency) {
+        this.engine = engine;
+        this.maxConcurrency = maxConcurrency;
+    }
+
+    /**
+     * @param inputPath A file with one JSON document per line
+     * @param outputPath The file to which to write the results, replaced if it exists
+     * @return The number of records written
+     */
+    public Single<Long> process(String inputPath, String outputPath) {
+        FileSystem fs = engine.getRxVertx().fileSystem();
+        return fs.rxOpen(inputPath, new OpenOptions().setRead(true).setWrite(false).setCreate(false))
+                .flatMap(in -> fs.rxOpen(outputPath, new OpenOptions().setWrite(true).setCreate(true).setTruncateExisting(true))
+                        .flatMap(out -> transfer(in, out)
+                                .flatMap(count -> close(in, out).toSingleDefault(count))
+                                .onErrorResumeNext(t -> close(in, out).onErrorComplete().andThen(Single.<Long>error(t)))));
+    }
+
+    private Single<Long> transfer(AsyncFile in, AsyncFile out) {
+        AtomicLong position = new AtomicLong();
+        AtomicLong count = new AtomicLong();
+        return RecordParser.newDelimited(NEWLINE, in).toFlowable()
+                .map(line -> line.toString().trim())
+                .filter(line -> !line.isEmpty())
+                .concatMapEager(line -> execute(line).toFlowable(), maxConcurrency, 1)
+                .concatMapCompletable(record -> {
+                    long pos = position.getAndAdd(record.length());
+                    count.incrementAndGet();
+                    return out.rxWrite(record, pos);
+                })
+                .toSingle(count::get);
+    }
+
+    private Single<Buffer> execute(String line) {
+        return Single.fromCallable(() -> new JsonObject(line))
+                .flatMap(doc -> engine.execute(doc))
+                .map(output -> Buffer.buffer(Json.encode(output) + NEWLINE))
+                .onErrorReturn(t -> Buffer.buffer(new JsonObject().put("error", String.valueOf(t)).encode() + NEWLINE));
+    }
+
+    private static Completable close(AsyncFile in, AsyncFile out) {
+        return out.rxClose().mergeWith(in.rxClose());
+    }
+}
@@ -0,0 +1,52 @@
+package com.redhat.vertx;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The outcome of running one document through an {@link Engine} as part of a batch: either the
+ * result of execution or the error which stopped it.
+ */
+public class Result {
+    private final JsonObject input;
+    private final Object output;
+    private final Throwable error;
+
+    private Result(JsonObject input, Object output, Throwable error) {
+        this.input = input;
+        this.output = output;
+        this.error = error;
+    }
+
+    public static Result success(JsonObject input, Object output) {
+        return new Result(input, output, null);
+    }
+
+    public static Result failure(JsonObject input, Throwable error) {
+        return new Result(input, null, error);
+    }
+
+    /**
+     * @return The document as it was given to the engine
+     */
+    public JsonObject getInput() {
+        return input;
+    }
+
+    /**
+     * @return The completed document (or the outermost section's result), or null if execution failed
+     */
+    public Object getOutput() {
+        return output;
+    }
+
+    /**
+     * @return The reason execution failed, or null if it succeeded
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+}
@@ -0,0 +1,96 @@
+package com.redhat.vertx;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.DeploymentOptions;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.Vertx;
+
+/**
+ * Spreads one pipeline across several {@link Engine} instances, each deployed on its own event loop, so that a
+ * pipeline can use more than one core.  Each document goes to one engine, chosen by hashing the value of the
+ * document's <code>engine.shardKey</code> field (default "id"), or in turn if it has none.  Each engine keeps
+ * its own documents.  One {@link DocumentLogger} logs the events of all the engines.
+ */
+public class ShardedEngine {
+    private final List<Engine> shards;
+    private final String shardKey;
+    private final AtomicInteger nextShard = new AtomicInteger();
+    private final List<String> deploymentIds = new CopyOnWriteArrayList<>();
+
+    /**
+     * @param pipelineDef The pipeline for every engine
+     * @param systemConfig The system configuration for every engine
+     * @param instances How many engines to run, typically the number of event loops (2 x cores by default)
+     */
+    public ShardedEngine(String pipelineDef, JsonObject systemConfig, int instances) {
+        if (instances < 1) {
+            throw new IllegalArgumentException("At least one engine instance is required");
+        }
+        List<Engine> engines = new ArrayList<>(instances);
+        for (int i = 0; i < instances; i++) {
+            Engine engine = new Engine(pipelineDef, systemConfig);
+            engine.setOwnLogger(false);
+            engines.add(engine);
+        }
+        this.shards = Collections.unmodifiableList(engines);
+        this.shardKey = engines.get(0).getConfigString("engine.shardKey", "id");
+    }
+
+    /**
+     * Deploy each engine separately, so that Vert.x binds each to its own event loop, and the logger they share.
+     */
+    public Completable deploy(Vertx vertx) {
+        Completable logger = vertx.rxDeployVerticle(new DocumentLogger(), new DeploymentOptions().setWorker(true)
+                .setWorkerPoolName("document-logger")).doOnSuccess(deploymentIds::add).ignoreElement();
+        return logger.andThen(Flowable.fromIterable(shards)
+                .concatMapCompletable(e -> vertx.rxDeployVerticle(e).doOnSuccess(deploymentIds::add).ignoreElement()));
+    }
+
+    public Completable undeploy(Vertx vertx) {
+        return Flowable.fromIterable(deploymentIds)
+                .concatMapCompletable(id -> vertx.rxUndeploy(id).doOnComplete(() -> deploymentIds.remove(id)));
+    }
+
+    /**
+     * @see Engine#execute(JsonObject)
+     */
+    public Single<? extends Object> execute(JsonObject executionData) {
+        Engine engine = shardFor(executionData);
+        return engine.execute(executionData).subscribeOn(engine.getScheduler());
+    }
+
+    /**
+     * @see Engine#execute(Flowable, int, boolean)
+     */
+    public Flowable<Result> execute(Flowable<JsonObject> documents, int maxConcurrency, boolean ordered) {
+        return Engine.executeEach(documents, this::execute, maxConcurrency, ordered);
+    }
+
+    Engine shardFor(JsonObject executionData) {
+        Object key = executionData.getValue(shardKey);
+        int hash = (key == null) ? nextShard.getAndIncrement() : key.hashCode();
+        return shards.get(Math.floorMod(hash, shards.size()));
+    }
+
+    /**
+     * @return The metrics of each engine, in a "shards" array
+     */
+    public JsonObject getMetrics() {
+        JsonArray metrics = new JsonArray();
+        shards.forEach(e -> metrics.add(e.getMetrics()));
+        return new JsonObject().put("shards", metrics);
+    }
+
+    public List<Engine> getShards() {
+        return shards;
+    }
+}
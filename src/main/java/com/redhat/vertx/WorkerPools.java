@@ -0,0 +1,205 @@
+package com.redhat.vertx;
+
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+import io.reactivex.Maybe;
+import io.vertx.core.AsyncResult;
+import io.vertx.core.Context;
+import io.vertx.core.Future;
+import io.vertx.core.Handler;
+import io.vertx.core.Vertx;
+import io.vertx.core.WorkerExecutor;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Named pools of worker threads on which an {@link Engine} runs blocking work, keeping it off the event loop.
+ * Each pool is created when first used, with <code>engine.workers.&lt;name&gt;.size</code> threads from
+ * the system config (default 20).
+ *
+ * The pool named {@link #VIRTUAL_POOL} instead starts a virtual thread for each piece of work, so it needs no
+ * sizing.  On a JVM without virtual threads (before Java 21), it is an ordinary worker pool.
+ */
+public class WorkerPools {
+    private static final Logger logger = Logger.getLogger(WorkerPools.class.getName());
+    public static final String DEFAULT_POOL = "default";
+    public static final String VIRTUAL_POOL = "virtual";
+    private static final int DEFAULT_SIZE = 20;
+
+    private final Engine engine;
+    private final Map<String, Pool> pools = new ConcurrentHashMap<>();
+
+    WorkerPools(Engine engine) {
+        this.engine = engine;
+    }
+
+    /**
+     * @param poolName The pool on which to run the work
+     * @param work The blocking work, returning null for no result
+     * @return The result of the work, delivered back on the calling context
+     */
+    public <T> Maybe<T> execute(String poolName, Callable<T> work) {
+        return Maybe.defer(() -> pools.computeIfAbsent(poolName, this::createPool).execute(work));
+    }
+
+    private Pool createPool(String name) {
+        Vertx vertx = engine.getRxVertx().getDelegate();
+        if (VIRTUAL_POOL.equals(name)) {
+            ExecutorService executor = newVirtualThreadPerTaskExecutor();
+            if (executor != null) {
+                return new VirtualThreadPool(vertx, executor);
+            }
+            logger.warning("Virtual threads are not available in this JVM; using a worker pool instead");
+        }
+        int size = engine.getConfigInteger("engine.workers." + name + ".size", DEFAULT_SIZE);
+        return new WorkerPool(vertx.createSharedWorkerExecutor("engine-" + name, size), size);
+    }
+
+    /**
+     * @return An executor starting a virtual thread per task, or null if this JVM has no virtual threads
+     */
+    static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    void close() {
+        pools.values().forEach(Pool::close);
+        pools.clear();
+    }
+
+    /**
+     * @return For each pool, its size (0 for unbounded), the work waiting for and holding a thread, and how long
+     * work has waited
+     */
+    JsonObject metrics() {
+        JsonObject snapshot = new JsonObject();
+        pools.forEach((name, pool) -> snapshot.put(name, pool.metrics()));
+        return snapshot;
+    }
+
+    private abstract static class Pool {
+        final int size;
+        final AtomicLong queued = new AtomicLong();
+        final AtomicLong active = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong totalQueueNanos = new AtomicLong();
+        final AtomicLong maxQueueNanos = new AtomicLong();
+
+        Pool(int size) {
+            this.size = size;
+        }
+
+        <T> Maybe<T> execute(Callable<T> work) {
+            return Maybe.create(emitter -> {
+                long submitted = System.nanoTime();
+                queued.incrementAndGet();
+                Callable<T> measured = () -> {
+                    long waited = System.nanoTime() - submitted;
+                    queued.decrementAndGet();
+                    active.incrementAndGet();
+                    totalQueueNanos.addAndGet(waited);
+                    maxQueueNanos.accumulateAndGet(waited, Math::max);
+                    try {
+                        return work.call();
+                    } finally {
+                        active.decrementAndGet();
+                        completed.incrementAndGet();
+                    }
+                };
+                submit(measured, ar -> {
+                    if (ar.failed()) {
+                        emitter.onError(ar.cause());
+                    } else if (ar.result() == null) {
+                        emitter.onComplete();
+                    } else {
+                        emitter.onSuccess(ar.result());
+                    }
+                });
+            });
+        }
+
+        /**
+         * Run the work on a thread of this pool, and hand its result to the handler on the calling context.
+         */
+        abstract <T> void submit(Callable<T> work, Handler<AsyncResult<T>> resultHandler);
+
+        abstract void close();
+
+        JsonObject metrics() {
+            long done = completed.get();
+            return new JsonObject()
+                    .put("size", size)
+                    .put("queued", queued.get())
+                    .put("active", active.get())
+                    .put("completed", done)
+                    .put("meanQueueMillis", done == 0 ? 0 : TimeUnit.NANOSECONDS.toMillis(totalQueueNanos.get() / done))
+                    .put("maxQueueMillis", TimeUnit.NANOSECONDS.toMillis(maxQueueNanos.get()));
+        }
+    }
+
+    private static class WorkerPool extends Pool {
+        private final WorkerExecutor executor;
+
+        WorkerPool(WorkerExecutor executor, int size) {
+            super(size);
+            this.executor = executor;
+        }
+
+        @Override
+        <T> void submit(Callable<T> work, Handler<AsyncResult<T>> resultHandler) {
+            executor.<T>executeBlocking(future -> {
+                try {
+                    future.complete(work.call());
+                } catch (Throwable t) {
+                    future.fail(t);
+                }
+            }, false, resultHandler);
+        }
+
+        @Override
+        void close() {
+            executor.close();
+        }
+    }
+
+    private static class VirtualThreadPool extends Pool {
+        private final Vertx vertx;
+        private final ExecutorService executor;
+
+        VirtualThreadPool(Vertx vertx, ExecutorService executor) {
+            super(0);
+            this.vertx = vertx;
+            this.executor = executor;
+        }
+
+        @Override
+        <T> void submit(Callable<T> work, Handler<AsyncResult<T>> resultHandler) {
+            Context context = vertx.getOrCreateContext();
+            executor.execute(() -> {
+                AsyncResult<T> result;
+                try {
+                    result = Future.succeededFuture(work.call());
+                } catch (Throwable t) {
+                    result = Future.failedFuture(t);
+                }
+                AsyncResult<T> r = result;
+                context.runOnContext(v -> resultHandler.handle(r));
+            });
+        }
+
+        @Override
+        void close() {
+            executor.shutdown();
+        }
+    }
+}
@@ -3,6 +3,7 @@ package com.redhat.vertx.pipeline;
 import java.util.logging.Logger;
 
 import com.redhat.vertx.Engine;
+import com.redhat.vertx.WorkerPools;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
 import io.vertx.core.json.JsonObject;
@@ -16,19 +17,38 @@ public abstract class AbstractStep implements Step {
     protected Engine engine;
     protected String name;
     private boolean initialized;
+    private String blockingPool;
 
     @Override
     public Completable init(Engine engine, JsonObject config) {
         assert !initialized;
         this.engine = engine;
         name = config.getString("name");
+        blockingPool = findBlockingPool(config);
         initialized = true;
         return Completable.complete();
     }
 
+    /**
+     * @return The worker pool on which to run {@link #executeFast(JsonObject)}, from the "blocking" key of the
+     * step definition or else the {@link Blocking} annotation, or null to run it on the event loop
+     */
+    private String findBlockingPool(JsonObject config) {
+        Blocking annotation = getClass().getAnnotation(Blocking.class);
+        String annotatedPool = (annotation == null) ? WorkerPools.DEFAULT_POOL : annotation.value();
+        Object blocking = config.getValue("blocking");
+        if (blocking == null) {
+            return (annotation == null) ? null : annotatedPool;
+        }
+        String s = blocking.toString().trim();
+        if ("true".equalsIgnoreCase(s)) {
+            return annotatedPool;
+        }
+        return "false".equalsIgnoreCase(s) ? null : s;
+    }
 
     /**
-     * Override this if the work is non-blocking.
+     * Override this if the work is non-blocking, or if it is blocking and the step is marked {@link Blocking}.
      *
      * @param env A {@link JsonObject} consisting of the variables for this step, plus a special one called "doc"
      *            containing the document being constructed.
@@ -47,6 +67,9 @@ public abstract class AbstractStep implements Step {
      */
     @Override
     public Maybe<Object> execute(JsonObject env) {
+        if (blockingPool != null) {
+            return engine.executeBlocking(blockingPool, () -> executeFast(env));
+        }
         try {
             Object rval = executeFast(env);
             return (rval == null ) ? Maybe.empty() : Maybe.just(rval);
@@ -0,0 +1,25 @@
+package com.redhat.vertx.pipeline;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+import com.redhat.vertx.WorkerPools;
+
+/**
+ * Marks an {@link AbstractStep} whose {@link AbstractStep#executeFast(io.vertx.core.json.JsonObject)} blocks or
+ * does enough work to hold up the event loop.  Such steps run on a worker pool instead.  A pipeline may override
+ * this for one step with <code>blocking: true</code>, <code>blocking: false</code>, or <code>blocking: poolname</code>.
+ * The pool {@value WorkerPools#VIRTUAL_POOL} runs each execution on its own virtual thread, where the JVM has them.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface Blocking {
+    /**
+     * @return The name of the worker pool on which to run the step, or {@value WorkerPools#VIRTUAL_POOL}
+     */
+    String value() default WorkerPools.DEFAULT_POOL;
+}
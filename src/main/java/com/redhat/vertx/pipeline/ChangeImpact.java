@@ -0,0 +1,106 @@
+package com.redhat.vertx.pipeline;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * The steps of a pipeline which have to run again when some keys of a finished document change: those whose
+ * templates read a changed key, or read a key registered by another such step, and the sections containing them.
+ * Every other step would see the same environment as before, so its registered value still stands.
+ *
+ * This is worked out statically, from the document keys each step reads and registers, as for
+ * {@link Section#DATAFLOW} scheduling.  A step which may read the document from Java (one not annotated
+ * {@link ReadsVariablesOnly}) reads every key, and so runs again whenever anything changes.  A step whose
+ * <code>register</code> is a template may write any key, so when it has to run again every other step does too.
+ */
+public final class ChangeImpact {
+    private final Set<StepExecutor> affected;
+    private final Set<String> staleKeys;
+
+    private ChangeImpact(Set<StepExecutor> affected, Set<String> staleKeys) {
+        this.affected = affected;
+        this.staleKeys = staleKeys;
+    }
+
+    /**
+     * @param pipeline The outermost step of the pipeline
+     * @param changedKeys The keys of the document which changed
+     */
+    public static ChangeImpact of(StepExecutor pipeline, Set<String> changedKeys) {
+        List<StepExecutor> steps = new ArrayList<>();
+        Map<StepExecutor, StepExecutor> parents = new IdentityHashMap<>();
+        flatten(pipeline, null, steps, parents);
+
+        Set<String> dirty = new HashSet<>(changedKeys);
+        Set<StepExecutor> affected = Collections.newSetFromMap(new IdentityHashMap<>());
+        boolean grew = true;
+        while (grew) {
+            grew = false;
+            for (StepExecutor s : steps) {
+                if (!affected.contains(s) && (affected.contains(parents.get(s)) || DocumentReferences.overlap(ownReads(s), dirty))) {
+                    affected.add(s);
+                    dirty.addAll(s.getWrites());
+                    grew = true;
+                }
+            }
+        }
+        if (dirty.contains(DocumentReferences.ANY)) {
+            // a templated register may overwrite what any step registered, so none of it can be trusted
+            affected.addAll(steps);
+        }
+        // A section runs whenever anything inside it must
+        new ArrayList<>(affected).forEach(s -> {
+            for (StepExecutor p = parents.get(s); p != null && affected.add(p); p = parents.get(p)) {
+            }
+        });
+
+        Set<String> stale = new HashSet<>();
+        affected.forEach(s -> stale.addAll(s.getWrites()));
+        // The keys of templated registers aren't known until they run; each will be registered again
+        stale.remove(DocumentReferences.ANY);
+        return new ChangeImpact(Collections.unmodifiableSet(affected), Collections.unmodifiableSet(stale));
+    }
+
+    private static void flatten(StepExecutor s, StepExecutor parent, List<StepExecutor> steps,
+                                Map<StepExecutor, StepExecutor> parents) {
+        steps.add(s);
+        parents.put(s, parent);
+        if (s.step instanceof Section) {
+            ((Section) s.step).getSteps().forEach(child -> flatten(child, s, steps, parents));
+        }
+    }
+
+    /**
+     * @return The document keys read by the step itself, not counting the steps nested in it
+     */
+    private static Set<String> ownReads(StepExecutor s) {
+        if (!(s.step instanceof Section)) {
+            return s.getReads();
+        }
+        JsonObject own = s.stepConfig.copy();
+        own.remove("steps");
+        own.remove(s.step.getShortName());
+        return DocumentReferences.find(own);
+    }
+
+    /**
+     * @return true if the step has to run again
+     */
+    public boolean isAffected(StepExecutor step) {
+        return affected.contains(step);
+    }
+
+    /**
+     * @return The document keys which the affected steps may register, and so which are out of date
+     */
+    public Set<String> getStaleKeys() {
+        return staleKeys;
+    }
+}
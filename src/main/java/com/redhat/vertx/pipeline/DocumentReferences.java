@@ -0,0 +1,86 @@
+package com.redhat.vertx.pipeline;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.redhat.vertx.pipeline.templates.JinjaTemplateProcessor;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Static analysis of the document keys a piece of step configuration refers to through its templates.
+ *
+ * Only the text inside <code>{{ ... }}</code> and <code>{% ... %}</code> is considered.  A reference
+ * like <code>doc.foo</code> or <code>doc["foo"]</code> yields <code>foo</code>; any other use of
+ * <code>doc</code> (for example <code>doc|tojson</code>) yields {@link #ANY}, meaning the whole document.
+ */
+final class DocumentReferences {
+    /**
+     * Stands for "every key of the document", when the keys in use can't be determined statically.
+     */
+    static final String ANY = "*";
+
+    private static final Pattern TEMPLATE_PART = Pattern.compile("\\{\\{(.*?)}}|\\{%(.*?)%}", Pattern.DOTALL);
+    private static final Pattern DOC_REFERENCE = Pattern.compile(
+            "(?<![\\w.])doc\\b(?:\\s*\\.\\s*(\\w+)|\\s*\\[\\s*['\"]([^'\"]+)['\"]\\s*])?");
+
+    private DocumentReferences() {
+    }
+
+    /**
+     * @param value A string, JsonObject, or JsonArray from a step definition
+     * @return the set of document keys read by templates anywhere inside <code>value</code>
+     */
+    static Set<String> find(Object value) {
+        Set<String> keys = new HashSet<>();
+        collect(value, keys);
+        return Collections.unmodifiableSet(keys);
+    }
+
+    /**
+     * @return true if a step which reads <code>reads</code> must wait for one which writes <code>writes</code>
+     */
+    static boolean overlap(Set<String> reads, Set<String> writes) {
+        if (reads.isEmpty() || writes.isEmpty()) {
+            return false;
+        }
+        if (reads.contains(ANY) || writes.contains(ANY)) {
+            return true;
+        }
+        return !Collections.disjoint(reads, writes);
+    }
+
+    private static void collect(Object value, Set<String> keys) {
+        if (value instanceof String) {
+            collectFromTemplate((String) value, keys);
+        } else if (value instanceof JsonObject) {
+            collect(((JsonObject) value).getMap(), keys);
+        } else if (value instanceof JsonArray) {
+            collect(((JsonArray) value).getList(), keys);
+        } else if (value instanceof Map) {
+            ((Map<?, ?>) value).values().forEach(v -> collect(v, keys));
+        } else if (value instanceof List) {
+            ((List<?>) value).forEach(v -> collect(v, keys));
+        }
+    }
+
+    private static void collectFromTemplate(String s, Set<String> keys) {
+        if (!JinjaTemplateProcessor.hasMarkup(s)) {
+            return;
+        }
+        Matcher part = TEMPLATE_PART.matcher(s);
+        while (part.find()) {
+            String expression = part.group(1) != null ? part.group(1) : part.group(2);
+            Matcher ref = DOC_REFERENCE.matcher(expression);
+            while (ref.find()) {
+                String key = ref.group(1) != null ? ref.group(1) : ref.group(2);
+                keys.add(key == null ? ANY : key);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.redhat.vertx.pipeline;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a step which reads the document only through the templates in its variables, and never looks at
+ * <code>doc</code> in its environment directly.  The document keys such a step reads can then be found from the
+ * pipeline definition, for {@link Section#DATAFLOW} scheduling and {@link ChangeImpact}.  A step without this
+ * annotation is taken to read the whole document.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface ReadsVariablesOnly {
+}
@@ -8,6 +8,8 @@ import java.util.stream.Collectors;
 import com.redhat.vertx.Engine;
 
 import io.reactivex.*;
+import io.reactivex.disposables.CompositeDisposable;
+import io.reactivex.observables.ConnectableObservable;
 import io.vertx.core.eventbus.DeliveryOptions;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -18,26 +20,26 @@ import org.kohsuke.MetaInfServices;
 public class Section implements Step {
     private static final Logger logger = Logger.getLogger(Section.class.getName());
     private static List<String> RESERVED_WORDS =
-            Arrays.asList("name", "register", "steps", "timeout", "concurrent", "return", "when");
+            Arrays.asList("name", "register", "steps", "timeout", "concurrent", "return", "when",
+                    "blocking", "cache");
+    /**
+     * Value for "concurrent" which starts each step as soon as the steps before it which
+     * register what it reads have finished.
+     */
+    public static final String DATAFLOW = "dataflow";
+    private static final Throwable PREREQUISITE_FAILED = new RuntimeException("Prerequisite step failed", null, false, false) {};
 
     private Engine engine;
     private String name;
     private List<StepExecutor> steps;
     private Function<Iterable<? extends MaybeSource<Object>>, Flowable<Object>> comboTechnique;
+    private List<List<Integer>> prerequisites;
 
     public Section() {
 
     }
 
     private Step buildStep(JsonObject def) {
-        ServiceLoader<Step> serviceLoader = ServiceLoader.load(Step.class);
-        final Optional<ServiceLoader.Provider<Step>> stepClass;
-
-        var allShortNames = serviceLoader.stream()
-                .collect(Collectors.toMap(
-                        provider -> provider.get().getShortName(),
-                        Optional::of));
-
         // Get all the config keys, strip out reserved words
         final var defKeys = new HashSet<>(def.getMap().keySet());
         defKeys.removeAll(RESERVED_WORDS);
@@ -48,14 +50,8 @@ public class Section implements Step {
         }
 
         // We should only have one entry, use that for the short name to class mapping
-        stepClass = allShortNames.getOrDefault(defKeys.toArray()[0].toString(), Optional.empty());
-
-        // Return the class found or error
-        if (stepClass.isPresent()) {
-            return stepClass.get().get();
-        } else {
-            throw new RuntimeException("Error locating step implementation");
-        }
+        return StepRegistry.getInstance().newStep(defKeys.toArray()[0].toString())
+                .orElseThrow(() -> new RuntimeException("Error locating step implementation"));
     }
 
     public String getName() {
@@ -68,7 +64,8 @@ public class Section implements Step {
         this.name = config.getString("name","default");
         List<Completable> stepInitCompletables = new ArrayList<>();
         List<StepExecutor> steps = new ArrayList<>();
-        comboTechnique = config.getBoolean("concurrent",false) ?
+        Object concurrent = config.getValue("concurrent", false);
+        comboTechnique = (DATAFLOW.equals(concurrent) || Boolean.parseBoolean(String.valueOf(concurrent))) ?
                 Maybe::mergeDelayError : Maybe::concat;
 
         JsonArray innerSteps = config.getJsonObject(getShortName(), config).getJsonArray("steps", new JsonArray());
@@ -78,13 +75,71 @@ public class Section implements Step {
             steps.add(new StepExecutor(engine,s,(JsonObject)stepConfig));
         });
         this.steps=Collections.unmodifiableList(steps);
+        this.prerequisites = DATAFLOW.equals(concurrent) ? findPrerequisites(this.steps) : null;
         return Completable.merge(stepInitCompletables);
     }
 
+    /**
+     * For each step, find the earlier steps which must finish before it starts: those which register something
+     * it reads, read something it registers, or register the same thing, so that every step sees the document
+     * it would see serially and the last to register a key is the last in the pipeline.  Considering only
+     * earlier steps keeps the graph acyclic.
+     */
+    private static List<List<Integer>> findPrerequisites(List<StepExecutor> steps) {
+        List<List<Integer>> prereqs = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) {
+            StepExecutor later = steps.get(i);
+            List<Integer> p = new ArrayList<>();
+            for (int j = 0; j < i; j++) {
+                StepExecutor earlier = steps.get(j);
+                if (DocumentReferences.overlap(later.getReads(), earlier.getWrites())
+                        || DocumentReferences.overlap(earlier.getReads(), later.getWrites())
+                        || DocumentReferences.overlap(later.getWrites(), earlier.getWrites())) {
+                    p.add(j);
+                }
+            }
+            prereqs.add(Collections.unmodifiableList(p));
+        }
+        return Collections.unmodifiableList(prereqs);
+    }
+
+    List<StepExecutor> getSteps() {
+        return steps;
+    }
+
+    /**
+     * @return For each step, the indexes of the steps it waits for under {@link #DATAFLOW} scheduling, or null
+     * if the section isn't scheduled that way
+     */
+    List<List<Integer>> getPrerequisites() {
+        return prerequisites;
+    }
+
+    /**
+     * @return the document keys read by the steps in this section, including those of nested sections
+     */
+    Set<String> getReads() {
+        Set<String> reads = new HashSet<>();
+        steps.forEach(s -> reads.addAll(s.getReads()));
+        return reads;
+    }
+
+    /**
+     * @return the document keys registered by the steps in this section, including those of nested sections
+     */
+    Set<String> getWrites() {
+        Set<String> writes = new HashSet<>();
+        steps.forEach(s -> writes.addAll(s.getWrites()));
+        return writes;
+    }
+
     public Maybe<Object> execute(JsonObject environment) {
         String documentId = environment.getJsonObject("doc").getString(Engine.DOC_UUID);
         JsonObject stepdef = environment.getJsonObject("stepdef");
-        return comboTechnique.apply(steps.stream().map(s -> s.executeStep(documentId)).collect(Collectors.toList()))
+        Flowable<Object> executions = (prerequisites == null) ?
+                comboTechnique.apply(steps.stream().map(s -> s.executeStep(documentId)).collect(Collectors.toList())) :
+                executeDataflow(documentId);
+        return executions
                 .doOnSubscribe(s -> publishSectionEvent(documentId, EventBusMessage.SECTION_STARTED))
                 .doOnComplete(() -> publishSectionEvent(documentId, EventBusMessage.SECTION_COMPLETED))
                 .doOnError(t -> publishSectionEvent(documentId, EventBusMessage.SECTION_ERRORED))
@@ -92,6 +147,35 @@ public class Section implements Step {
                 .toMaybe();
     }
 
+    private Flowable<Object> executeDataflow(String documentId) {
+        return Flowable.defer(() -> {
+            // Each step's execution is shared by the steps waiting on it; the connections are kept so that
+            // disposing of the section (as on a timeout) stops every step still running
+            CompositeDisposable running = new CompositeDisposable();
+            List<ConnectableObservable<Object>> shared = new ArrayList<>(steps.size());
+            List<Maybe<Object>> executions = new ArrayList<>(steps.size());
+            for (int i = 0; i < steps.size(); i++) {
+                Completable ready = Completable.merge(prerequisites.get(i).stream()
+                        .map(p -> executions.get(p).ignoreElement())
+                        .collect(Collectors.toList()));
+                ConnectableObservable<Object> execution = ready
+                        .onErrorResumeNext(t -> Completable.error(PREREQUISITE_FAILED))
+                        .andThen(steps.get(i).executeStep(documentId))
+                        .toObservable()
+                        .replay();
+                shared.add(execution);
+                executions.add(execution.singleElement());
+            }
+            // Report each failure once, from the step where it happened, not from every step that depended on it
+            return Maybe.mergeDelayError(executions.stream()
+                    .map(e -> e.onErrorResumeNext((Throwable t) ->
+                            t == PREREQUISITE_FAILED ? Maybe.empty() : Maybe.error(t)))
+                    .collect(Collectors.toList()))
+                    .doOnSubscribe(s -> shared.forEach(execution -> running.add(execution.connect())))
+                    .doOnCancel(running::dispose);
+        });
+    }
+
     private void publishSectionEvent(String documentId, String message) {
         logger.finest("Section " + message);
         EventBus bus = engine.getEventBus();
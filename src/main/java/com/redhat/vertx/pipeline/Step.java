@@ -28,7 +28,15 @@ public interface Step {
     // on camel case add underscore before
     // and lower case the simple class name
     default String getShortName() {
-        return this.getClass().getSimpleName()
+        return shortNameOf(this.getClass());
+    }
+
+    /**
+     * @param stepClass A class implementing Step
+     * @return the default short name for steps of that class, as described in {@link #getShortName()}
+     */
+    static String shortNameOf(Class<? extends Step> stepClass) {
+        return stepClass.getSimpleName()
                 .replaceAll("(?<!^)(\\p{Lu})", "_$1")
                 .toLowerCase(Locale.getDefault());
     }
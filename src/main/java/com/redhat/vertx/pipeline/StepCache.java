@@ -0,0 +1,102 @@
+package com.redhat.vertx.pipeline;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.redhat.vertx.Engine;
+import com.redhat.vertx.pipeline.json.JsonCopy;
+import io.reactivex.Maybe;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Remembers the results of one step, keyed on its rendered variables, as configured by its <code>cache</code>
+ * control parameter:
+ * <ul>
+ *     <li><code>cache: true</code> - up to 1000 results, kept until evicted</li>
+ *     <li><code>cache: PT10M</code> - as above, each kept for at most the given duration</li>
+ *     <li><code>cache: { size: 5000, ttl: PT10M, key: "{{ doc.q }}" }</code> - with a size limit, a time limit,
+ *     and a template for the key, in place of the rendered variables</li>
+ * </ul>
+ *
+ * Only the step's own variables make up the default key, so a step which reads <code>doc</code> or
+ * <code>system</code> from its environment directly (rather than through a template in a variable)
+ * needs a <code>key</code> which includes what it reads.
+ *
+ * Concurrent executions with the same key share one execution of the step.  Failures aren't cached.
+ */
+final class StepCache {
+    private static final long DEFAULT_SIZE = 1000;
+    private final Cache<String, Maybe<Object>> cache;
+    private final boolean keyed;
+
+    private StepCache(long size, Duration ttl, boolean keyed) {
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .maximumSize(size)
+                .recordStats();
+        if (ttl != null) {
+            builder.expireAfterWrite(ttl);
+        }
+        this.cache = builder.build();
+        this.keyed = keyed;
+    }
+
+    /**
+     * @param def The value of the step's <code>cache</code> control parameter
+     * @return A cache configured by it, or null if it's absent or false
+     */
+    static StepCache fromConfig(Object def) {
+        if (def == null || Boolean.FALSE.equals(def) || "false".equals(def)) {
+            return null;
+        }
+        if (def instanceof JsonObject) {
+            JsonObject config = (JsonObject) def;
+            String ttl = config.getString("ttl");
+            return new StepCache(config.getLong("size", DEFAULT_SIZE),
+                    (ttl == null) ? null : Engine.parseDuration(ttl),
+                    config.containsKey("key"));
+        }
+        if (Boolean.TRUE.equals(def) || "true".equals(def)) {
+            return new StepCache(DEFAULT_SIZE, null, false);
+        }
+        return new StepCache(DEFAULT_SIZE, Engine.parseDuration(def.toString()), false);
+    }
+
+    /**
+     * @param env The step's environment
+     * @param vars The names of the step's variables
+     * @return The key for this execution of the step
+     */
+    String keyFor(JsonObject env, Iterable<String> vars) {
+        if (keyed) {
+            return String.valueOf(env.getJsonObject("stepdef").getJsonObject("cache").getValue("key"));
+        }
+        JsonObject rendered = new JsonObject();
+        vars.forEach(v -> rendered.put(v, env.getValue(v)));
+        return rendered.encode();
+    }
+
+    /**
+     * @param key The key for this execution
+     * @param execution Executes the step, if its result isn't already known
+     * @return The result for the key, copied so that each caller may do as it likes with it
+     */
+    Maybe<Object> get(String key, Supplier<Maybe<Object>> execution) {
+        Maybe<Object> result = cache.get(key, k -> execution.get().cache());
+        return result
+                .doOnError(t -> cache.asMap().remove(key, result))
+                .map(JsonCopy::copyOf);
+    }
+
+    JsonObject metrics() {
+        CacheStats stats = cache.stats();
+        return new JsonObject()
+                .put("size", cache.estimatedSize())
+                .put("hits", stats.hitCount())
+                .put("misses", stats.missCount())
+                .put("hitRatio", stats.hitRate())
+                .put("evictions", stats.evictionCount());
+    }
+}
@@ -2,23 +2,104 @@ package com.redhat.vertx.pipeline;
 
 import com.redhat.vertx.Engine;
 import com.redhat.vertx.pipeline.json.TemplatedJsonObject;
+import com.redhat.vertx.pipeline.templates.JinjaTemplateProcessor;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
-import io.reactivex.Single;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
 import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
 
+/**
+ * Executes one step of a pipeline against documents.  Everything which depends only on the pipeline
+ * (the step's variables, its literal control parameters, its dependencies) is worked out once, when the
+ * executor is built, and shared by every document the engine processes.
+ */
 public class StepExecutor {
     final Engine engine;
     final Step step;
     final JsonObject stepConfig;
+    private final Set<String> reads;
+    private final Set<String> writes;
+    private final Map<String, Object> vars;
+    private final ControlValue<Boolean> when;
+    private final ControlValue<String> register;
+    private final ControlValue<Duration> timeout;
+    private final ControlValue<Object> returnValue;
+    private final boolean returnSomething;
+    private final StepCache cache;
 
     public StepExecutor(Engine engine, Step step, JsonObject stepConfig) {
         this.engine = engine;
         this.step=step;
         this.stepConfig = stepConfig;
+        this.reads = findReads(step, stepConfig);
+        this.writes = findWrites(step, stepConfig);
+
+        JsonObject v = stepConfig.getJsonObject(step.getShortName());
+        // Deep-copied here and only ever seen through the read-only TemplatedJsonObject of an environment, so
+        // no document can change what the next one sees
+        this.vars = (v == null) ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(v.copy().getMap()));
+        this.when = new ControlValue<>(stepConfig, "when",
+                o -> (o == null) ? Boolean.TRUE : (o instanceof Boolean) ? (Boolean) o : Boolean.valueOf(o.toString()));
+        this.register = new ControlValue<>(stepConfig, "register", o -> (o == null) ? null : o.toString());
+        this.timeout = new ControlValue<>(stepConfig, "timeout", o -> (o == null) ? null : Engine.parseDuration(o.toString()));
+        this.returnValue = new ControlValue<>(stepConfig, "return", Function.identity());
+        this.returnSomething = stepConfig.containsKey("return");
+        this.cache = StepCache.fromConfig(stepConfig.getValue("cache"));
+        if (cache != null && engine != null) {
+            String metricsName = "cache." + stepConfig.getString("name", step.getShortName());
+            if (engine.hasMetrics(metricsName)) {
+                throw new IllegalArgumentException("Another cached step reports its metrics as " + metricsName +
+                        "; give each cached step a unique name");
+            }
+            engine.registerMetrics(metricsName, cache::metrics);
+        }
+    }
+
+    private static Set<String> findReads(Step step, JsonObject stepConfig) {
+        Set<String> r = new HashSet<>(DocumentReferences.find(stepConfig));
+        if (step instanceof Section) {
+            r.addAll(((Section) step).getReads());
+        } else if (!step.getClass().isAnnotationPresent(ReadsVariablesOnly.class)) {
+            // it may look at the document from Java, where we can't see what it reads
+            r.add(DocumentReferences.ANY);
+        }
+        return Collections.unmodifiableSet(r);
+    }
+
+    private static Set<String> findWrites(Step step, JsonObject stepConfig) {
+        Set<String> w = new HashSet<>();
+        String register = stepConfig.getString("register");
+        if (register != null) {
+            w.add(JinjaTemplateProcessor.hasMarkup(register) ? DocumentReferences.ANY : register);
+        }
+        if (step instanceof Section) {
+            w.addAll(((Section) step).getWrites());
+        }
+        return Collections.unmodifiableSet(w);
+    }
+
+    /**
+     * @return The document keys this step (including any steps nested within it) reads, possibly including
+     * {@link DocumentReferences#ANY}
+     */
+    Set<String> getReads() {
+        return reads;
+    }
+
+    /**
+     * @return The document keys this step (including any steps nested within it) may register
+     */
+    Set<String> getWrites() {
+        return writes;
     }
 
 
@@ -27,59 +108,92 @@ public class StepExecutor {
     }
 
     private Maybe<Object> execute0(String docId) {
+        if (when.isLiteral() && !when.get(null)) {
+            return Maybe.empty();
+        }
         JsonObject stepEnvironment = getEnvironment(docId);
 
         JsonObject stepdef = stepEnvironment.getJsonObject("stepdef");
-        boolean when = Boolean.valueOf(stepdef.getString("when","true"));
-        if (!when) {
+        if (!when.get(stepdef)) {
             return Maybe.empty();
         }
-        String register = stepdef.getString("register");
-        boolean returnSomething = stepdef.containsKey("return");
+        if (!engine.isAffected(docId, this)) {
+            // Re-executing, and nothing this step reads has changed: its registered value still stands
+            return returnValue(docId);
+        }
+        String register = this.register.get(stepdef);
 
-        Maybe<Object> result = step.execute(stepEnvironment)
+        Maybe<Object> stepResult = (cache == null) ?
+                step.execute(stepEnvironment) :
+                cache.get(cache.keyFor(stepEnvironment, vars.keySet()), () -> step.execute(stepEnvironment));
+        Maybe<Object> result = stepResult
                 .filter(r -> register != null || returnSomething )
                 .flatMap(r -> {
                             Completable updateCompletable = register == null?
                                     Completable.complete() :
                                     engine.updateDocument(docId, new JsonObject().put(register, r));
-                            Maybe<Object> returnMaybe = returnSomething ?
-                                    Maybe.just(stepdef.getValue("return")) :
-                                    Maybe.empty();
-                            return updateCompletable.andThen(returnMaybe);
+                            return updateCompletable.andThen(returnValue(docId));
                         },
                         Maybe::error,
-                        () -> returnSomething ?
-                                Maybe.just(stepdef.getValue("return")) :
-                                Maybe.empty()
+                        () -> returnValue(docId)
                 );
 
-        Duration timeout = parseDuration(stepdef.getString("timeout", null));
+        Duration timeout = this.timeout.get(stepdef);
         if (timeout != null) {
             result = result.timeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
         }
         return result;
     }
 
-    private Duration parseDuration(String duration) {
-        if (duration == null) {
-            return null;
-        }
-        duration = duration.toUpperCase();
-        if (!duration.startsWith("PT")) {
-            duration = "PT" + duration;
+    /**
+     * @return The step's <code>return</code> value, rendered only once the step has run, against the document as
+     * it is then, so that it can see what the step (or the steps of a section) registered
+     */
+    private Maybe<Object> returnValue(String docId) {
+        if (!returnSomething) {
+            return Maybe.empty();
         }
-        return Duration.parse(duration);
+        return Maybe.fromCallable(() -> returnValue.isLiteral() ? returnValue.get(null) :
+                returnValue.get(getEnvironment(docId).getJsonObject("stepdef")));
     }
 
-
     protected JsonObject getEnvironment(String docId) {
-        JsonObject vars = stepConfig.getJsonObject(step.getShortName());
-        vars = (vars==null)?new JsonObject():vars.copy();
-        vars.put("doc", engine.getDocument(docId));
-        vars.put("system", engine.getSystemConfig());
-        vars.put("stepdef", stepConfig);
-        return new TemplatedJsonObject(vars, engine.getTemplateProcessor(), "doc", "system");
+        Map<String, Object> env = new HashMap<>((vars.size() + 3) * 4 / 3 + 1);
+        env.putAll(vars);
+        env.put("doc", engine.getDocument(docId));
+        env.put("system", engine.getSystemConfig());
+        env.put("stepdef", stepConfig);
+        return new TemplatedJsonObject(new JsonObject(env), engine.getTemplateProcessor(), "doc", "system");
     }
 
+    /**
+     * A control parameter from the step definition.  A literal is parsed once, when the pipeline is compiled;
+     * a value with template markup is rendered and parsed against each document's environment.
+     */
+    private static final class ControlValue<T> {
+        private final String key;
+        private final Function<Object, T> parser;
+        private final boolean templated;
+        private final T literal;
+
+        ControlValue(JsonObject stepConfig, String key, Function<Object, T> parser) {
+            this.key = key;
+            this.parser = parser;
+            Object raw = stepConfig.getValue(key);
+            this.templated = (raw instanceof String && JinjaTemplateProcessor.hasMarkup((String) raw))
+                    || raw instanceof JsonObject || raw instanceof JsonArray;
+            this.literal = templated ? null : parser.apply(raw);
+        }
+
+        boolean isLiteral() {
+            return !templated;
+        }
+
+        /**
+         * @param stepdef The step definition as seen from the step environment, so that its templates are rendered
+         */
+        T get(JsonObject stepdef) {
+            return templated ? parser.apply(stepdef.getValue(key)) : literal;
+        }
+    }
 }
@@ -0,0 +1,97 @@
+package com.redhat.vertx.pipeline;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.ServiceLoader;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide index of the {@link Step} implementations published through {@link ServiceLoader}
+ * (i.e. annotated with <code>@MetaInfServices(Step.class)</code>), by short name.
+ *
+ * Each class loader is scanned once.  Steps which don't override {@link Step#getShortName()} are indexed
+ * without being instantiated; the registry holds factories, and a new step is made only when a
+ * pipeline asks for one.  Two different step classes with the same short name are an error, as there'd be
+ * no telling which a pipeline meant.
+ */
+public final class StepRegistry {
+    private static final StepRegistry INSTANCE = new StepRegistry();
+
+    // Replaced whole, never changed, so that lookups needn't lock
+    private volatile Map<String, ServiceLoader.Provider<Step>> providers = Collections.emptyMap();
+    private final Set<ClassLoader> classLoaders = ConcurrentHashMap.newKeySet();
+
+    private StepRegistry() {
+    }
+
+    public static StepRegistry getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @param shortName The short name of the step, as it appears in a pipeline
+     * @return a new instance of the step, or empty if no step by that name is known to the current
+     * thread's context class loader or any registered class loader
+     */
+    public Optional<Step> newStep(String shortName) {
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        if (!classLoaders.contains(cl == null ? ClassLoader.getSystemClassLoader() : cl)) {
+            register(cl);
+        }
+        ServiceLoader.Provider<Step> provider = providers.get(shortName);
+        return (provider == null) ? Optional.empty() : Optional.of(provider.get());
+    }
+
+    /**
+     * Make the steps visible to another class loader (a plugin, for instance) available to pipelines.
+     *
+     * @param classLoader The class loader to scan for steps
+     * @throws IllegalStateException if it has a step with the same short name as another step class
+     */
+    public synchronized void register(ClassLoader classLoader) {
+        ClassLoader cl = (classLoader == null) ? ClassLoader.getSystemClassLoader() : classLoader;
+        Map<String, ServiceLoader.Provider<Step>> next = new HashMap<>(providers);
+        scan(cl, next);
+        providers = Collections.unmodifiableMap(next);
+        classLoaders.add(cl);
+    }
+
+    /**
+     * Forget everything and scan all the registered class loaders again.  Lookups meanwhile see the steps as
+     * they were before.
+     *
+     * @throws IllegalStateException if two step classes now have the same short name
+     */
+    public synchronized void refresh() {
+        Map<String, ServiceLoader.Provider<Step>> next = new HashMap<>();
+        classLoaders.forEach(cl -> scan(cl, next));
+        providers = Collections.unmodifiableMap(next);
+    }
+
+    private static void scan(ClassLoader cl, Map<String, ServiceLoader.Provider<Step>> into) {
+        ServiceLoader.load(Step.class, cl).stream().forEach(provider -> {
+            String name = shortName(provider);
+            ServiceLoader.Provider<Step> other = into.putIfAbsent(name, provider);
+            // A class loader also finds the steps of its parents, which are no conflict
+            if (other != null && other.type() != provider.type()) {
+                throw new IllegalStateException("Duplicate step short name " + name + ": " +
+                        other.type().getName() + " and " + provider.type().getName());
+            }
+        });
+    }
+
+    private static String shortName(ServiceLoader.Provider<Step> provider) {
+        Class<? extends Step> type = provider.type();
+        try {
+            if (type.getMethod("getShortName").getDeclaringClass() == Step.class) {
+                return Step.shortNameOf(type);
+            }
+        } catch (NoSuchMethodException e) {
+            // Not possible, Step declares it
+        }
+        return provider.get().getShortName();
+    }
+}
@@ -0,0 +1,132 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.time.Duration;
+import java.util.Locale;
+
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Finds how many requests a host can take at once from how long it takes to answer them.  Each response
+ * is a sample; the limit rises while responses come back promptly and falls when they slow down or the host
+ * sheds load (a timeout, connection failure, 429, or 503).
+ *
+ * <ul>
+ *     <li>{@link Algorithm#AIMD} adds one while the limit is in use and responses are faster than
+ *     <code>latency</code>, and multiplies by <code>backoff</code> otherwise.</li>
+ *     <li>{@link Algorithm#GRADIENT} compares each response time with the long-run average: the limit shrinks
+ *     in proportion as responses slow down (queueing at the host), and grows by about its square root while
+ *     they don't.</li>
+ * </ul>
+ *
+ * The limit stays between <code>min</code> and <code>max</code>, and doesn't grow while less than half of it is
+ * in use, so a quiet spell doesn't leave it too high for the next burst.
+ */
+public class AdaptiveLimit {
+    public enum Algorithm {
+        AIMD,
+        GRADIENT;
+
+        public static Algorithm parse(String s) {
+            return valueOf(s.trim().toUpperCase(Locale.ROOT));
+        }
+    }
+
+    private static final double TOLERANCE = 1.5;
+    private static final double SMOOTHING = 0.2;
+    private static final int WARMUP = 10;
+
+    private final Algorithm algorithm;
+    private final int min;
+    private final int max;
+    private final long latencyNanos;
+    private final double backoff;
+    private double limit;
+    private double longRtt;
+    private long samples;
+    private long lastRttNanos;
+    private long increases;
+    private long decreases;
+
+    /**
+     * @param latency For AIMD, the response time beyond which to back off, or null to back off only when the
+     *                host sheds load
+     * @param backoff For AIMD, the factor by which to reduce the limit
+     */
+    public AdaptiveLimit(Algorithm algorithm, int initial, int min, int max, Duration latency, double backoff) {
+        this.algorithm = algorithm;
+        this.min = Math.max(1, min);
+        this.max = Math.max(this.min, max);
+        this.latencyNanos = (latency == null) ? Long.MAX_VALUE : latency.toNanos();
+        this.backoff = backoff;
+        this.limit = Math.min(this.max, Math.max(this.min, initial));
+    }
+
+    /**
+     * @param rttNanos How long the request took; anything under 1ns (as from a coarse clock) counts as 1ns
+     * @param inFlight How many requests were in flight when it was sent, itself included
+     * @param dropped Whether the host failed or refused it
+     * @return The new limit, at least 1, as 0 would mean no limit at all to a bulkhead
+     */
+    public synchronized int sample(long rttNanos, int inFlight, boolean dropped) {
+        rttNanos = Math.max(1, rttNanos);
+        samples++;
+        lastRttNanos = rttNanos;
+        double before = limit;
+        if (algorithm == Algorithm.AIMD) {
+            if (dropped || rttNanos > latencyNanos) {
+                limit = limit * backoff;
+            } else if (inFlight * 2 >= limit) {
+                limit = limit + 1;
+            }
+        } else {
+            gradient(rttNanos, inFlight, dropped);
+        }
+        if (Double.isNaN(limit)) {
+            limit = before;
+        }
+        limit = Math.min(max, Math.max(min, limit));
+        if ((int) limit > (int) before) {
+            increases++;
+        } else if ((int) limit < (int) before) {
+            decreases++;
+        }
+        return (int) limit;
+    }
+
+    private void gradient(long rttNanos, int inFlight, boolean dropped) {
+        if (samples <= WARMUP) {
+            // a plain average until there's enough to go on
+            longRtt += (rttNanos - longRtt) / samples;
+            if (!dropped) {
+                return;
+            }
+        } else {
+            longRtt = longRtt * (1 - 1.0 / 600) + rttNanos / 600.0;
+            if (longRtt / rttNanos > 2) {
+                // the host got faster, as after scaling out; don't let the old average hold the limit back
+                longRtt = rttNanos * 2;
+            }
+        }
+        if (!dropped && inFlight * 2 < limit) {
+            return;
+        }
+        double gradient = dropped ? 0.5 : Math.max(0.5, Math.min(1.0, TOLERANCE * longRtt / rttNanos));
+        double target = limit * gradient + Math.sqrt(limit);
+        limit = limit * (1 - SMOOTHING) + target * SMOOTHING;
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized JsonObject metrics() {
+        return new JsonObject()
+                .put("algorithm", algorithm.name())
+                .put("limit", (int) limit)
+                .put("samples", samples)
+                .put("increases", increases)
+                .put("decreases", decreases)
+                .put("lastRttMillis", lastRttNanos / 1_000_000)
+                .put("averageRttMillis", (long) longRtt / 1_000_000);
+    }
+}
@@ -0,0 +1,137 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.time.Duration;
+import java.util.function.Predicate;
+
+import io.reactivex.Single;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Fails calls fast while a dependency is failing.  While closed, the breaker watches the outcomes of the last
+ * <code>window</code> calls; when at least <code>minCalls</code> have been made and the share which failed
+ * (or, if <code>slowCall</code> is set, took longer than that) reaches <code>failureRate</code>, it opens.
+ * While open, calls fail at once with {@link CircuitOpenException}.  After <code>openDuration</code> it lets
+ * <code>probes</code> calls through (half-open): if they all succeed it closes, and if any fails it opens again.
+ */
+public class CircuitBreaker {
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final String name;
+    private final double failureRate;
+    private final long slowCallNanos;
+    private final int minCalls;
+    private final long openNanos;
+    private final int probes;
+    private final boolean[] window;
+    private int windowCount;
+    private int windowNext;
+    private int windowFailures;
+    private State state = State.CLOSED;
+    private long openUntil;
+    private int probesInFlight;
+    private int probeSuccesses;
+    private long rejected;
+    private long opened;
+
+    public CircuitBreaker(String name, double failureRate, Duration slowCall, int window, int minCalls,
+                          Duration openDuration, int probes) {
+        this.name = name;
+        this.failureRate = failureRate;
+        this.slowCallNanos = (slowCall == null) ? Long.MAX_VALUE : slowCall.toNanos();
+        this.window = new boolean[Math.max(1, window)];
+        this.minCalls = Math.min(Math.max(1, minCalls), this.window.length);
+        this.openNanos = openDuration.toNanos();
+        this.probes = Math.max(1, probes);
+    }
+
+    /**
+     * @param call The call to protect
+     * @param isFailure Whether a result counts as a failure, such as a 5xx response
+     * @return The call, or an immediate {@link CircuitOpenException} if the breaker is open
+     */
+    public <T> Single<T> protect(Single<T> call, Predicate<T> isFailure) {
+        return Single.defer(() -> {
+            boolean probe = acquire();
+            long start = System.nanoTime();
+            return call
+                    .doOnSuccess(r -> record(probe, isFailure.test(r) || System.nanoTime() - start > slowCallNanos))
+                    .doOnError(t -> record(probe, true))
+                    .doOnDispose(() -> cancelled(probe));
+        });
+    }
+
+    /**
+     * @return true if this call is a half-open probe
+     */
+    private synchronized boolean acquire() {
+        if (state == State.OPEN && System.nanoTime() - openUntil >= 0) {
+            state = State.HALF_OPEN;
+            probesInFlight = 0;
+            probeSuccesses = 0;
+        }
+        if (state == State.CLOSED) {
+            return false;
+        }
+        if (state == State.HALF_OPEN && probesInFlight < probes) {
+            probesInFlight++;
+            return true;
+        }
+        rejected++;
+        throw new CircuitOpenException(name);
+    }
+
+    private synchronized void record(boolean probe, boolean failed) {
+        if (state == State.HALF_OPEN && probe) {
+            if (failed) {
+                open();
+            } else if (++probeSuccesses >= probes) {
+                state = State.CLOSED;
+                windowCount = windowNext = windowFailures = 0;
+            }
+        } else if (state == State.CLOSED) {
+            if (windowCount == window.length && window[windowNext]) {
+                windowFailures--;
+            }
+            window[windowNext] = failed;
+            windowNext = (windowNext + 1) % window.length;
+            windowCount = Math.min(windowCount + 1, window.length);
+            if (failed) {
+                windowFailures++;
+            }
+            if (windowCount >= minCalls && windowFailures >= failureRate * windowCount) {
+                open();
+            }
+        }
+    }
+
+    private synchronized void cancelled(boolean probe) {
+        if (probe && state == State.HALF_OPEN) {
+            probesInFlight--;
+        }
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openUntil = System.nanoTime() + openNanos;
+        opened++;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    synchronized JsonObject metrics() {
+        return new JsonObject()
+                .put("state", state.name())
+                .put("recentCalls", windowCount)
+                .put("recentFailures", windowFailures)
+                .put("opened", opened)
+                .put("rejected", rejected);
+    }
+
+    public static class CircuitOpenException extends RuntimeException {
+        CircuitOpenException(String name) {
+            super("Circuit breaker for " + name + " is open", null, false, false);
+        }
+    }
+}
@@ -0,0 +1,60 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.vertx.Engine;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Sends a second copy of a request which hasn't been answered within a percentile of the step's recent
+ * response times, and takes whichever answer comes first.  Configured in the step as <code>hedge: true</code>
+ * or <code>hedge: { percentile: 95, minDelay: PT0.01S }</code>.  Only GET and HEAD requests are hedged, and
+ * hedges come out of the {@link RetryBudget}.
+ */
+public class HedgePolicy {
+    private final double percentile;
+    private final long minDelayMillis;
+
+    HedgePolicy(double percentile, Duration minDelay) {
+        this.percentile = percentile;
+        this.minDelayMillis = minDelay.toMillis();
+    }
+
+    /**
+     * @param def The step's <code>hedge</code> setting
+     * @return The policy, or null for none
+     */
+    public static HedgePolicy fromConfig(Object def) {
+        if (def == null || "false".equals(def.toString())) {
+            return null;
+        }
+        JsonObject config = (def instanceof JsonObject) ? (JsonObject) def : new JsonObject();
+        return new HedgePolicy(config.getDouble("percentile", 95.0),
+                Engine.parseDuration(config.getString("minDelay", "PT0.01S")));
+    }
+
+    /**
+     * @param method The request's method; requests other than GET and HEAD are sent just once
+     * @param attempt Sends the request, each time it's subscribed
+     * @param latencies The step's recent response times
+     * @param budget Limits hedges
+     * @return The first answer from the request or its hedge; the other is disposed of
+     */
+    public <T> Single<T> apply(HttpMethod method, Single<T> attempt, LatencyTracker latencies, RetryBudget budget) {
+        if (method != HttpMethod.GET && method != HttpMethod.HEAD) {
+            return attempt;
+        }
+        return Single.defer(() -> {
+            long delay = latencies.percentile(percentile);
+            if (delay < 0) {
+                return attempt;
+            }
+            Single<T> hedge = Single.timer(Math.max(delay, minDelayMillis), TimeUnit.MILLISECONDS)
+                    .flatMap(t -> budget.tryHedge() ? attempt : Single.<T>never());
+            return Single.ambArray(attempt, hedge);
+        });
+    }
+}
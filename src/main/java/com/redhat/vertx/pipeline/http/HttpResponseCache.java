@@ -0,0 +1,538 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.RemovalCause;
+import com.redhat.vertx.Engine;
+import com.redhat.vertx.pipeline.json.JsonCopy;
+import com.redhat.vertx.pipeline.json.JsonSize;
+import io.reactivex.Completable;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.Single;
+import io.reactivex.functions.Function;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.MultiMap;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.core.file.FileSystem;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+
+/**
+ * A private HTTP cache of decoded response bodies, shared by the HTTP steps of an {@link Engine}.
+ *
+ * Responses are kept as long as their <code>Cache-Control: max-age</code> (or failing that, <code>Expires</code>)
+ * allows, less the <code>Age</code> they arrived with, and then revalidated with <code>If-None-Match</code> or
+ * <code>If-Modified-Since</code> if they carried an <code>ETag</code> or <code>Last-Modified</code> header.
+ * Within the <code>stale-while-revalidate</code> period, the stale response is used while it is revalidated in
+ * the background.  <code>no-store</code> and <code>Vary: *</code> are honored, and <code>no-cache</code> means
+ * every use is revalidated (<code>no-cache</code> naming header fields doesn't, as only bodies are kept).
+ * A response to a request with credentials is kept only if it's marked <code>public</code>.
+ *
+ * Requests are told apart by method, URL, and every request header (see {@link #keyFor}), which covers any
+ * header a response <code>Vary</code>s on, and keeps one user's responses from another.
+ *
+ * Configured from the engine's system config:
+ * <ul>
+ *     <li><code>http.cache.enabled</code> - default false</li>
+ *     <li><code>http.cache.maxBytes</code> - approximate memory for cached bodies, default 64MB</li>
+ *     <li><code>http.cache.dir</code> - a directory to which responses evicted from memory are written, and
+ *     from which they are read back; by default, they're discarded.  Files left there by an earlier run are
+ *     removed, as is each file once its response is past its <code>stale-while-revalidate</code> period (or
+ *     has been read back into memory)</li>
+ *     <li><code>http.cache.dir.maxBytes</code> - the most the files in the directory may take, default 1GB,
+ *     beyond which the oldest are removed</li>
+ * </ul>
+ */
+public class HttpResponseCache {
+    private static final Logger logger = Logger.getLogger(HttpResponseCache.class.getName());
+    private static final Pattern DIRECTIVE = Pattern.compile("([\\w-]+)\\s*(?:=\\s*(?:\"([^\"]*)\"|([^,\\s]*)))?");
+    private static final Set<String> CREDENTIALS = Set.of("authorization", "cookie", "proxy-authorization");
+    private static final int DEFAULT_MAX_BYTES = 64 * 1024 * 1024;
+    private static final long DEFAULT_MAX_DISK_BYTES = 1024L * 1024 * 1024;
+
+    private final Engine engine;
+    private final Cache<String, Entry> memory;
+    private final String directory;
+    private final DiskIndex onDisk;
+    private final Set<String> revalidating = ConcurrentHashMap.newKeySet();
+    private Completable directoryCreated;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong revalidated = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    HttpResponseCache(Engine engine, int maxBytes, String directory, long maxDiskBytes) {
+        this.engine = engine;
+        this.directory = directory;
+        this.onDisk = new DiskIndex(maxDiskBytes);
+        this.memory = Caffeine.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher((String key, Entry entry) -> entry.weight + 2 * key.length())
+                .removalListener((String key, Entry entry, RemovalCause cause) -> {
+                    if (cause == RemovalCause.SIZE && directory != null) {
+                        writeToDisk(key, entry);
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return The engine's cache, or null if caching is disabled
+     */
+    public static HttpResponseCache forEngine(Engine engine) {
+        if (!Boolean.parseBoolean(engine.getConfigString("http.cache.enabled", "false"))) {
+            return null;
+        }
+        HttpResponseCache cache = engine.getService(HttpResponseCache.class, () -> new HttpResponseCache(engine,
+                engine.getConfigInteger("http.cache.maxBytes", DEFAULT_MAX_BYTES),
+                engine.getConfigString("http.cache.dir", null),
+                Long.parseLong(engine.getConfigString("http.cache.dir.maxBytes", String.valueOf(DEFAULT_MAX_DISK_BYTES)))));
+        if (cache != null && !engine.hasMetrics("http.cache")) {
+            engine.registerMetrics("http.cache", cache::metrics);
+        }
+        return cache;
+    }
+
+    /**
+     * @param method The request method; only GET and HEAD responses are cached
+     * @param hasBody true if the request has a body, which also makes it uncacheable
+     */
+    public static boolean isCacheable(HttpMethod method, boolean hasBody) {
+        return !hasBody && (method == HttpMethod.GET || method == HttpMethod.HEAD);
+    }
+
+    /**
+     * @return The cache key of a request: its method and URL, and a digest of all its headers, so that
+     * credentials don't sit in memory as they are
+     */
+    public static String keyFor(HttpMethod method, String url, MultiMap headers) {
+        Map<String, List<String>> sorted = new TreeMap<>();
+        headers.names().forEach(name -> sorted.put(name.toLowerCase(Locale.ROOT), headers.getAll(name)));
+        return method + " " + url + " " + sha256(sorted.toString());
+    }
+
+    /**
+     * @return true if the request headers carry credentials, so that the response is for this user alone
+     */
+    public static boolean hasCredentials(MultiMap headers) {
+        return headers.names().stream().anyMatch(name -> CREDENTIALS.contains(name.toLowerCase(Locale.ROOT)));
+    }
+
+    /**
+     * @param key Identifies the request, including everything which changes the response; see {@link #keyFor}
+     * @param credentials true if the request carries credentials, in which case only public responses are kept
+     * @param send Sends the request with the given extra (conditional) headers
+     * @param decode Decodes a 200 or 204 response, throwing for any other status
+     * @return The decoded body, from the cache or from sending the request
+     */
+    public Maybe<Object> get(String key, boolean credentials,
+                             Function<Map<String, String>, Single<HttpResponse<Buffer>>> send,
+                             Function<HttpResponse<Buffer>, Object> decode) {
+        return lookup(key)
+                .flatMap(entry -> serve(key, entry, credentials, send, decode).toMaybe())
+                .switchIfEmpty(Single.defer(() -> {
+                    misses.incrementAndGet();
+                    return fetch(key, null, credentials, send, decode);
+                }))
+                .flatMapMaybe(Entry::value);
+    }
+
+    private Single<Entry> serve(String key, Entry entry, boolean credentials,
+                                Function<Map<String, String>, Single<HttpResponse<Buffer>>> send,
+                                Function<HttpResponse<Buffer>, Object> decode) {
+        long now = System.currentTimeMillis();
+        if (entry.isFresh(now)) {
+            hits.incrementAndGet();
+            return Single.just(entry);
+        }
+        if (entry.isUsableWhileRevalidating(now)) {
+            staleHits.incrementAndGet();
+            if (revalidating.add(key)) {
+                fetch(key, entry, credentials, send, decode)
+                        .doFinally(() -> revalidating.remove(key))
+                        .subscribe(e -> { }, t -> logger.fine(() -> "Revalidating " + key + " failed: " + t));
+            }
+            return Single.just(entry);
+        }
+        return fetch(key, entry, credentials, send, decode);
+    }
+
+    private Single<Entry> fetch(String key, Entry previous, boolean credentials,
+                                Function<Map<String, String>, Single<HttpResponse<Buffer>>> send,
+                                Function<HttpResponse<Buffer>, Object> decode) {
+        Map<String, String> validators = (previous == null) ? Collections.emptyMap() : previous.validators();
+        return Single.defer(() -> send.apply(validators))
+                .map(response -> {
+                    if (response.statusCode() == 304 && previous != null) {
+                        revalidated.incrementAndGet();
+                        return store(key, previous.refreshedBy(response));
+                    }
+                    return store(key, Entry.of(response, decode.apply(response), credentials));
+                });
+    }
+
+    private Entry store(String key, Entry entry) {
+        if (entry.isStorable()) {
+            memory.put(key, entry);
+        } else {
+            memory.invalidate(key);
+        }
+        return entry;
+    }
+
+    private Maybe<Entry> lookup(String key) {
+        Entry entry = memory.getIfPresent(key);
+        if (entry != null || directory == null) {
+            return (entry == null) ? Maybe.empty() : Maybe.just(entry);
+        }
+        String path = pathFor(key);
+        long usableUntil = onDisk.remove(path);
+        if (usableUntil < 0) {
+            return Maybe.empty();
+        }
+        FileSystem fs = engine.getRxVertx().fileSystem();
+        if (usableUntil <= System.currentTimeMillis()) {
+            delete(fs, Collections.singletonList(path));
+            return Maybe.empty();
+        }
+        return fs.rxReadFile(path)
+                .map(buffer -> Entry.fromJson(buffer.toJsonObject()))
+                .toMaybe()
+                .onErrorComplete()
+                .doOnSuccess(e -> {
+                    diskHits.incrementAndGet();
+                    memory.put(key, e);
+                })
+                .doFinally(() -> delete(fs, Collections.singletonList(path)));
+    }
+
+    private void writeToDisk(String key, Entry entry) {
+        long now = System.currentTimeMillis();
+        if (!entry.isUsableWhileRevalidating(now)) {
+            return;
+        }
+        FileSystem fs = engine.getRxVertx().fileSystem();
+        synchronized (this) {
+            if (directoryCreated == null) {
+                // files left by an earlier run aren't in the index, so nothing would ever remove them
+                directoryCreated = fs.rxMkdirs(directory)
+                        .andThen(fs.rxReadDir(directory, ".*\\.json"))
+                        .flatMapCompletable(leftovers -> Flowable.fromIterable(leftovers)
+                                .flatMapCompletable(f -> fs.rxDelete(f).onErrorComplete()))
+                        .cache();
+            }
+        }
+        String path = pathFor(key);
+        Buffer buffer = Buffer.buffer(entry.toJson().encode());
+        List<String> removed = onDisk.add(path, buffer.length(), entry.usableUntil(), now);
+        if (removed == null) {
+            return;
+        }
+        directoryCreated
+                .andThen(fs.rxWriteFile(path, buffer))
+                .doFinally(() -> delete(fs, removed))
+                .subscribe(() -> { }, t -> {
+                    onDisk.remove(path);
+                    logger.fine(() -> "Writing " + key + " to the disk cache failed: " + t);
+                });
+    }
+
+    private static void delete(FileSystem fs, List<String> paths) {
+        paths.forEach(path -> fs.rxDelete(path).onErrorComplete().subscribe());
+    }
+
+    private String pathFor(String key) {
+        return directory + '/' + sha256(key) + ".json";
+    }
+
+    private static String sha256(String s) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(s.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (byte b : digest) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    JsonObject metrics() {
+        return new JsonObject()
+                .put("entries", memory.estimatedSize())
+                .put("hits", hits.get())
+                .put("staleHits", staleHits.get())
+                .put("diskHits", diskHits.get())
+                .put("diskFiles", onDisk.size())
+                .put("diskBytes", onDisk.bytes())
+                .put("revalidated", revalidated.get())
+                .put("misses", misses.get());
+    }
+
+    /**
+     * The files in the disk cache directory, oldest first, with their sizes and the times their responses stop
+     * being usable, so that the directory can be kept within its size and cleared of expired responses without
+     * reading it.
+     */
+    static final class DiskIndex {
+        private static final long SWEEP_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(1);
+        private final long maxBytes;
+        // size and usable-until time, by path
+        private final LinkedHashMap<String, long[]> files = new LinkedHashMap<>();
+        private long bytes;
+        private long nextSweep;
+
+        DiskIndex(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        /**
+         * @param path The file about to be written
+         * @param size Its size in bytes
+         * @param usableUntil When its response stops being usable
+         * @param now The current time
+         * @return The files to delete: the oldest, to make room for this one, and (once a minute) any which have
+         * expired; or null if this one doesn't fit at all, and shouldn't be written
+         */
+        synchronized List<String> add(String path, long size, long usableUntil, long now) {
+            if (size > maxBytes) {
+                return null;
+            }
+            remove(path);
+            List<String> removed = new ArrayList<>();
+            boolean sweep = now >= nextSweep;
+            if (sweep) {
+                nextSweep = now + SWEEP_INTERVAL_MILLIS;
+            }
+            Iterator<Map.Entry<String, long[]>> it = files.entrySet().iterator();
+            while (it.hasNext() && (sweep || bytes + size > maxBytes)) {
+                Map.Entry<String, long[]> file = it.next();
+                if (bytes + size > maxBytes || file.getValue()[1] <= now) {
+                    bytes -= file.getValue()[0];
+                    removed.add(file.getKey());
+                    it.remove();
+                }
+            }
+            files.put(path, new long[] { size, usableUntil });
+            bytes += size;
+            return removed;
+        }
+
+        /**
+         * @return When the file's response stops being usable, or -1 if the file isn't in the index
+         */
+        synchronized long remove(String path) {
+            long[] file = files.remove(path);
+            if (file == null) {
+                return -1;
+            }
+            bytes -= file[0];
+            return file[1];
+        }
+
+        synchronized int size() {
+            return files.size();
+        }
+
+        synchronized long bytes() {
+            return bytes;
+        }
+    }
+
+    /**
+     * A decoded response and what's needed to decide whether it may still be used.
+     */
+    static final class Entry {
+        private final Object value;
+        private final String etag;
+        private final String lastModified;
+        private final long storedAt;
+        private final long maxAgeMillis;
+        private final long staleWhileRevalidateMillis;
+        private final boolean noStore;
+        private final int weight;
+
+        Entry(Object value, String etag, String lastModified, long storedAt, long maxAgeMillis,
+              long staleWhileRevalidateMillis, boolean noStore) {
+            this.value = value;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.storedAt = storedAt;
+            this.maxAgeMillis = maxAgeMillis;
+            this.staleWhileRevalidateMillis = staleWhileRevalidateMillis;
+            this.noStore = noStore;
+            this.weight = (int) Math.min(Integer.MAX_VALUE,
+                    128 + JsonSize.estimate(value instanceof Buffer ? ((Buffer) value).getDelegate() : value));
+        }
+
+        /**
+         * @param credentials true if the request carried credentials
+         */
+        static Entry of(HttpResponse<Buffer> response, Object value, boolean credentials) {
+            Map<String, String> cacheControl = parseCacheControl(response.getHeader("Cache-Control"));
+            long age = Math.max(0, seconds(response.getHeader("Age")));
+            String vary = response.getHeader("Vary");
+            boolean noStore = cacheControl.containsKey("no-store")
+                    || (vary != null && vary.trim().equals("*"))
+                    || (credentials && !cacheControl.containsKey("public"));
+            return new Entry(value, response.getHeader("ETag"), response.getHeader("Last-Modified"),
+                    System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(age),
+                    freshnessMillis(cacheControl, response.getHeader("Expires"), response.getHeader("Date")),
+                    TimeUnit.SECONDS.toMillis(Math.max(0, seconds(cacheControl.get("stale-while-revalidate")))),
+                    noStore);
+        }
+
+        /**
+         * @return How long a response is fresh from when it was generated: its <code>max-age</code>, or failing
+         * that the time from its <code>Date</code> to its <code>Expires</code>, or zero
+         */
+        static long freshnessMillis(Map<String, String> cacheControl, String expires, String date) {
+            if (cacheControl.containsKey("no-cache") && cacheControl.get("no-cache") == null) {
+                return 0;
+            }
+            long maxAge = seconds(cacheControl.get("max-age"));
+            if (maxAge >= 0) {
+                return TimeUnit.SECONDS.toMillis(maxAge);
+            }
+            if (expires == null) {
+                return 0;
+            }
+            long expiresAt = httpDate(expires);
+            long generatedAt = (date == null) ? System.currentTimeMillis() : httpDate(date);
+            // an invalid Expires (such as "0") means already expired
+            return (expiresAt < 0 || generatedAt < 0) ? 0 : Math.max(0, expiresAt - generatedAt);
+        }
+
+        /**
+         * @return the number of seconds, or -1 if there's no valid number
+         */
+        private static long seconds(String s) {
+            try {
+                return (s == null) ? -1 : Long.parseLong(s.trim());
+            } catch (NumberFormatException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * @return the time in milliseconds, or -1 if it isn't a valid HTTP date
+         */
+        private static long httpDate(String s) {
+            try {
+                return ZonedDateTime.parse(s.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+            } catch (DateTimeParseException e) {
+                return -1;
+            }
+        }
+
+        /**
+         * @return This entry, fresh again according to the headers of a 304 (Not Modified) response
+         */
+        Entry refreshedBy(HttpResponse<Buffer> notModified) {
+            Entry headers = of(notModified, null, false);
+            return new Entry(value,
+                    headers.etag == null ? etag : headers.etag,
+                    headers.lastModified == null ? lastModified : headers.lastModified,
+                    headers.storedAt, headers.maxAgeMillis, headers.staleWhileRevalidateMillis, headers.noStore);
+        }
+
+        /**
+         * @return the Cache-Control directives, in lower case, with the value of each that has one (unquoted, as
+         * for <code>no-cache="Set-Cookie"</code>), or null
+         */
+        static Map<String, String> parseCacheControl(String header) {
+            Map<String, String> directives = new HashMap<>();
+            if (header != null) {
+                Matcher m = DIRECTIVE.matcher(header);
+                while (m.find()) {
+                    directives.put(m.group(1).toLowerCase(Locale.ROOT), m.group(2) != null ? m.group(2) : m.group(3));
+                }
+            }
+            return directives;
+        }
+
+        boolean isStorable() {
+            return !noStore && (maxAgeMillis > 0 || etag != null || lastModified != null);
+        }
+
+        boolean isFresh(long now) {
+            return now - storedAt < maxAgeMillis;
+        }
+
+        boolean isUsableWhileRevalidating(long now) {
+            return now < usableUntil();
+        }
+
+        /**
+         * @return The time from which this response may not be used, even while it's revalidated
+         */
+        long usableUntil() {
+            return storedAt + maxAgeMillis + staleWhileRevalidateMillis;
+        }
+
+        Map<String, String> validators() {
+            Map<String, String> headers = new HashMap<>();
+            if (etag != null) {
+                headers.put("If-None-Match", etag);
+            }
+            if (lastModified != null) {
+                headers.put("If-Modified-Since", lastModified);
+            }
+            return headers;
+        }
+
+        /**
+         * @return The decoded body, copied so that each caller may do as it likes with it
+         */
+        Maybe<Object> value() {
+            return (value == null) ? Maybe.empty() : Maybe.just(JsonCopy.copyOf(value));
+        }
+
+        JsonObject toJson() {
+            JsonObject json = new JsonObject()
+                    .put("etag", etag)
+                    .put("lastModified", lastModified)
+                    .put("storedAt", storedAt)
+                    .put("maxAge", maxAgeMillis)
+                    .put("staleWhileRevalidate", staleWhileRevalidateMillis);
+            if (value instanceof Buffer) {
+                json.put("binary", ((Buffer) value).getBytes());
+            } else {
+                json.put("value", value);
+            }
+            return json;
+        }
+
+        static Entry fromJson(JsonObject json) {
+            Object value = json.containsKey("binary") ? Buffer.buffer(json.getBinary("binary")) : json.getValue("value");
+            return new Entry(value, json.getString("etag"), json.getString("lastModified"), json.getLong("storedAt"),
+                    json.getLong("maxAge"), json.getLong("staleWhileRevalidate"), false);
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.util.Arrays;
+
+/**
+ * The most recent response times of one step, for estimating percentiles.
+ */
+public class LatencyTracker {
+    private static final int MIN_SAMPLES = 20;
+    private final long[] samples;
+    private int count;
+    private int next;
+
+    public LatencyTracker(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        count = Math.min(count + 1, samples.length);
+    }
+
+    /**
+     * @param percentile Between 0 and 100
+     * @return The latency below which that percentage of recent responses came, or -1 if there have been
+     * too few responses to tell
+     */
+    public long percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count < MIN_SAMPLES) {
+                return -1;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+}
@@ -0,0 +1,95 @@
+package com.redhat.vertx.pipeline.http;
+
+import com.redhat.vertx.Engine;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Limits the extra requests (retries and hedges) all the HTTP steps of an {@link Engine} may make, so that they
+ * can't multiply the load on a backend which is already in trouble.  Each original request earns
+ * <code>http.retry.budget.ratio</code> (default 0.1) of an extra request, and a further
+ * <code>http.retry.budget.minPerSecond</code> (default 10) are allowed every second regardless.
+ */
+public class RetryBudget {
+    private static final double MAX_BALANCE = 1000;
+    private final double ratio;
+    private final int minPerSecond;
+    private double balance;
+    private long second;
+    private int reserve;
+    private long requests;
+    private long retries;
+    private long hedges;
+    private long refused;
+
+    RetryBudget(double ratio, int minPerSecond) {
+        this.ratio = ratio;
+        this.minPerSecond = minPerSecond;
+    }
+
+    public static RetryBudget forEngine(Engine engine) {
+        RetryBudget budget = engine.getService(RetryBudget.class, () -> new RetryBudget(
+                Double.parseDouble(engine.getConfigString("http.retry.budget.ratio", "0.1")),
+                engine.getConfigInteger("http.retry.budget.minPerSecond", 10)));
+        if (budget != null) {
+            engine.registerMetrics("http.retry", budget::metrics);
+        }
+        return budget;
+    }
+
+    /**
+     * Count an original request, which earns part of an extra one.
+     */
+    public synchronized void deposit() {
+        requests++;
+        balance = Math.min(MAX_BALANCE, balance + ratio);
+    }
+
+    /**
+     * @return true if a retry may be sent
+     */
+    public synchronized boolean tryRetry() {
+        if (withdraw()) {
+            retries++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * @return true if a hedged request may be sent
+     */
+    public synchronized boolean tryHedge() {
+        if (withdraw()) {
+            hedges++;
+            return true;
+        }
+        return false;
+    }
+
+    private boolean withdraw() {
+        long now = System.currentTimeMillis() / 1000;
+        if (now != second) {
+            second = now;
+            reserve = minPerSecond;
+        }
+        if (reserve > 0) {
+            reserve--;
+            return true;
+        }
+        if (balance >= 1) {
+            balance -= 1;
+            return true;
+        }
+        refused++;
+        return false;
+    }
+
+    synchronized JsonObject metrics() {
+        return new JsonObject()
+                .put("requests", requests)
+                .put("retries", retries)
+                .put("hedges", hedges)
+                .put("refused", refused)
+                .put("balance", balance);
+    }
+}
@@ -0,0 +1,91 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.vertx.Engine;
+import io.reactivex.Flowable;
+import io.reactivex.Single;
+import io.vertx.core.VertxException;
+import io.vertx.core.json.JsonObject;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+
+/**
+ * Retries a request which fails in transport or with a 502, 503, or 504 status, waiting an exponentially
+ * growing, jittered delay between attempts, as long as the {@link RetryBudget} allows.  Configured in the
+ * step as <code>retry: true</code> or <code>retry: { attempts: 3, backoff: PT0.1S, maxBackoff: PT2S }</code>.
+ */
+public class RetryPolicy {
+    private static final Set<Integer> RETRYABLE_STATUS = Set.of(502, 503, 504);
+    private final int attempts;
+    private final long backoffMillis;
+    private final long maxBackoffMillis;
+
+    RetryPolicy(int attempts, Duration backoff, Duration maxBackoff) {
+        this.attempts = attempts;
+        this.backoffMillis = backoff.toMillis();
+        this.maxBackoffMillis = maxBackoff.toMillis();
+    }
+
+    /**
+     * @param def The step's <code>retry</code> setting
+     * @return The policy, or null for none
+     */
+    public static RetryPolicy fromConfig(Object def) {
+        if (def == null || "false".equals(def.toString())) {
+            return null;
+        }
+        JsonObject config = (def instanceof JsonObject) ? (JsonObject) def : new JsonObject();
+        return new RetryPolicy(config.getInteger("attempts", 3),
+                Engine.parseDuration(config.getString("backoff", "PT0.1S")),
+                Engine.parseDuration(config.getString("maxBackoff", "PT2S")));
+    }
+
+    /**
+     * @param attempt Sends the request, each time it's subscribed
+     * @param budget Limits retries
+     * @return The first response which isn't worth retrying, or the last one
+     */
+    public Single<HttpResponse<Buffer>> apply(Single<HttpResponse<Buffer>> attempt, RetryBudget budget) {
+        return Single.defer(() -> {
+            AtomicInteger tries = new AtomicInteger(1);
+            return attempt
+                    .flatMap(r -> RETRYABLE_STATUS.contains(r.statusCode()) ?
+                            Single.<HttpResponse<Buffer>>error(new RetryableResponse(r)) : Single.just(r))
+                    .retryWhen(errors -> errors.flatMap(t -> {
+                        int n = tries.getAndIncrement();
+                        if (n >= attempts || !isRetryable(t) || !budget.tryRetry()) {
+                            return Flowable.error(t);
+                        }
+                        return Flowable.timer(backoff(n), TimeUnit.MILLISECONDS);
+                    }))
+                    .onErrorResumeNext(t -> (t instanceof RetryableResponse) ?
+                            Single.just(((RetryableResponse) t).response) : Single.error(t));
+        });
+    }
+
+    private long backoff(int attempt) {
+        long ceiling = Math.min(maxBackoffMillis, backoffMillis << Math.min(attempt - 1, 20));
+        return ThreadLocalRandom.current().nextLong(ceiling / 2, ceiling + 1);
+    }
+
+    private static boolean isRetryable(Throwable t) {
+        return t instanceof RetryableResponse || t instanceof IOException || t instanceof VertxException
+                || t instanceof TimeoutException;
+    }
+
+    private static class RetryableResponse extends RuntimeException {
+        final HttpResponse<Buffer> response;
+
+        RetryableResponse(HttpResponse<Buffer> response) {
+            super(null, null, false, false);
+            this.response = response;
+        }
+    }
+}
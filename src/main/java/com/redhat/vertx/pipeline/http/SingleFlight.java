@@ -0,0 +1,64 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import com.redhat.vertx.Engine;
+import com.redhat.vertx.pipeline.json.JsonCopy;
+import io.reactivex.Maybe;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Coalesces identical requests which are in flight at the same time: the first caller with a given key does
+ * the work, and every caller arriving before it finishes gets its result (or its error).  Shared by the HTTP
+ * steps of an {@link Engine}.
+ */
+public class SingleFlight {
+    private final Map<String, Maybe<Object>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong executed = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    public static SingleFlight forEngine(Engine engine) {
+        SingleFlight singleFlight = engine.getService(SingleFlight.class, SingleFlight::new);
+        if (singleFlight != null && !engine.hasMetrics("http.coalescing")) {
+            engine.registerMetrics("http.coalescing", singleFlight::metrics);
+        }
+        return singleFlight;
+    }
+
+    /**
+     * @param key Identifies the work, such that work with equal keys has equal results
+     * @param work Does the work
+     * @return The result of the work, done by this caller or by another with the same key; each caller gets its
+     * own copy
+     */
+    public Maybe<Object> execute(String key, Supplier<Maybe<Object>> work) {
+        return Maybe.defer(() -> {
+            Maybe<Object> existing = inFlight.get(key);
+            if (existing == null) {
+                AtomicReference<Maybe<Object>> self = new AtomicReference<>();
+                self.set(Maybe.defer(work::get)
+                        .doFinally(() -> inFlight.remove(key, self.get()))
+                        .cache());
+                existing = inFlight.putIfAbsent(key, self.get());
+                if (existing == null) {
+                    executed.incrementAndGet();
+                    // The cached result is shared by every caller, so none of them gets it, only copies
+                    return self.get().map(JsonCopy::copyOf);
+                }
+            }
+            coalesced.incrementAndGet();
+            return existing.map(JsonCopy::copyOf);
+        });
+    }
+
+    JsonObject metrics() {
+        return new JsonObject()
+                .put("inFlight", inFlight.size())
+                .put("executed", executed.get())
+                .put("coalesced", coalesced.get());
+    }
+}
@@ -0,0 +1,239 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.redhat.vertx.AdmissionControl;
+import com.redhat.vertx.Engine;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpVersion;
+import io.vertx.core.json.JsonObject;
+import io.vertx.ext.web.client.WebClientOptions;
+import io.vertx.reactivex.core.buffer.Buffer;
+import io.vertx.reactivex.ext.web.client.HttpResponse;
+import io.vertx.reactivex.ext.web.client.WebClient;
+
+/**
+ * One {@link WebClient}, and so one connection pool, per host for all the HTTP steps of an {@link Engine}.
+ * The clients are closed when the engine is undeployed.
+ *
+ * Each option is read from the system config as <code>http.client.&lt;host&gt;.&lt;option&gt;</code>, or else
+ * <code>http.client.&lt;option&gt;</code>:
+ * <ul>
+ *     <li><code>maxPoolSize</code> - connections per host, default 20</li>
+ *     <li><code>maxWaitQueueSize</code> - requests waiting for a connection, default -1 (unbounded)</li>
+ *     <li><code>pipelining</code>, <code>pipeliningLimit</code> - HTTP/1.1 pipelining, default false and 10</li>
+ *     <li><code>http2</code> - use HTTP/2, default false</li>
+ *     <li><code>http2MaxPoolSize</code>, <code>http2MultiplexingLimit</code> - HTTP/2 connections per host
+ *     and streams per connection, default 1 and -1 (as many as the server allows)</li>
+ *     <li><code>keepAlive</code>, <code>keepAliveTimeout</code> - default true and 300 seconds</li>
+ *     <li><code>idleTimeout</code> - seconds, default 300</li>
+ *     <li><code>connectTimeout</code> - a duration, default 30S</li>
+ * </ul>
+ *
+ * Requests to each host also pass through a bulkhead and, if it's turned on, a {@link CircuitBreaker}, configured
+ * the same way:
+ * <ul>
+ *     <li><code>maxConcurrent</code> - requests in flight, default 0 (no limit)</li>
+ *     <li><code>maxQueued</code>, <code>overflow</code> - requests waiting to be sent, default 100, and what to do
+ *     when they're too many, as for the engine's admission control</li>
+ *     <li><code>breaker</code> - default false</li>
+ *     <li><code>breaker.failureRate</code>, <code>breaker.slowCall</code>, <code>breaker.window</code>,
+ *     <code>breaker.minCalls</code>, <code>breaker.openDuration</code>, <code>breaker.probes</code> -
+ *     default 0.5, none, 20, 10, 30S, and 1</li>
+ * </ul>
+ *
+ * Rather than fixing <code>maxConcurrent</code>, the bulkhead's limit may follow the host's capacity as it
+ * changes, with an {@link AdaptiveLimit}:
+ * <ul>
+ *     <li><code>limit</code> - <code>aimd</code>, <code>gradient</code>, or <code>fixed</code> (the default)</li>
+ *     <li><code>limit.initial</code>, <code>limit.min</code>, <code>limit.max</code> - default
+ *     <code>maxConcurrent</code> (or 20), 1, and 1000</li>
+ *     <li><code>limit.latency</code>, <code>limit.backoff</code> - for AIMD, the response time beyond which to
+ *     back off, default none, and by how much, default 0.9</li>
+ * </ul>
+ */
+public class WebClients implements AutoCloseable {
+    private final Engine engine;
+    private final Map<String, Host> hosts = new ConcurrentHashMap<>();
+
+    WebClients(Engine engine) {
+        this.engine = engine;
+    }
+
+    public static WebClients forEngine(Engine engine) {
+        WebClients webClients = engine.getService(WebClients.class, () -> new WebClients(engine));
+        if (webClients != null) {
+            engine.registerMetrics("http.clients", webClients::metrics);
+        }
+        return webClients;
+    }
+
+    /**
+     * @return The client for the host and port of the uri
+     */
+    public Host forHost(URI uri) {
+        return hosts.computeIfAbsent(uri.getHost() + ":" + uri.getPort(), k -> new Host(uri.getHost()));
+    }
+
+    /**
+     * Close every host's client, and with it its connections.
+     */
+    @Override
+    public void close() {
+        hosts.values().forEach(Host::close);
+        hosts.clear();
+    }
+
+    JsonObject metrics() {
+        JsonObject snapshot = new JsonObject();
+        hosts.forEach((name, host) -> snapshot.put(name, host.metrics()));
+        return snapshot;
+    }
+
+    public class Host {
+        private final String name;
+        private final WebClientOptions options;
+        private final int capacity;
+        private volatile WebClient client;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger peakInFlight = new AtomicInteger();
+        private final AtomicLong requests = new AtomicLong();
+        private final AdmissionControl bulkhead;
+        private final CircuitBreaker breaker;
+        private final AdaptiveLimit limit;
+
+        Host(String name) {
+            this.name = name;
+            this.options = new WebClientOptions().setUserAgent("vertx-engine");
+            options.setConnectTimeout((int) duration("connectTimeout", Duration.ofSeconds(30)).toMillis());
+            options.setKeepAlive(bool("keepAlive", true));
+            options.setKeepAliveTimeout(integer("keepAliveTimeout", 300));
+            options.setIdleTimeout(integer("idleTimeout", 300));
+            options.setMaxPoolSize(integer("maxPoolSize", 20));
+            options.setMaxWaitQueueSize(integer("maxWaitQueueSize", -1));
+            options.setPipelining(bool("pipelining", false));
+            options.setPipeliningLimit(integer("pipeliningLimit", 10));
+            if (bool("http2", false)) {
+                options.setProtocolVersion(HttpVersion.HTTP_2);
+                options.setHttp2MaxPoolSize(integer("http2MaxPoolSize", 1));
+                options.setHttp2MultiplexingLimit(integer("http2MultiplexingLimit", -1));
+                capacity = (options.getHttp2MultiplexingLimit() < 0) ? -1 :
+                        options.getHttp2MaxPoolSize() * options.getHttp2MultiplexingLimit();
+            } else {
+                capacity = options.getMaxPoolSize() * (options.isPipelining() ? options.getPipeliningLimit() : 1);
+            }
+            String algorithm = string("limit", "fixed");
+            limit = algorithm.trim().equalsIgnoreCase("fixed") ? null : new AdaptiveLimit(
+                    AdaptiveLimit.Algorithm.parse(algorithm),
+                    integer("limit.initial", integer("maxConcurrent", 0) > 0 ? integer("maxConcurrent", 0) : 20),
+                    integer("limit.min", 1),
+                    integer("limit.max", 1000),
+                    duration("limit.latency", null),
+                    Double.parseDouble(string("limit.backoff", "0.9")));
+            bulkhead = new AdmissionControl(name,
+                    (limit == null) ? integer("maxConcurrent", 0) : limit.getLimit(),
+                    integer("maxQueued", 100),
+                    AdmissionControl.Overflow.parse(string("overflow", "wait")));
+            breaker = !bool("breaker", false) ? null : new CircuitBreaker(name,
+                    Double.parseDouble(string("breaker.failureRate", "0.5")),
+                    duration("breaker.slowCall", null),
+                    integer("breaker.window", 20),
+                    integer("breaker.minCalls", 10),
+                    duration("breaker.openDuration", Duration.ofSeconds(30)),
+                    integer("breaker.probes", 1));
+        }
+
+        private String config(String option) {
+            return engine.getConfigString("http.client." + name + "." + option,
+                    engine.getConfigString("http.client." + option, null));
+        }
+
+        private String string(String option, String def) {
+            String s = config(option);
+            return (s == null) ? def : s;
+        }
+
+        private int integer(String option, int def) {
+            String s = config(option);
+            return (s == null) ? def : Integer.parseInt(s.trim());
+        }
+
+        private boolean bool(String option, boolean def) {
+            String s = config(option);
+            return (s == null) ? def : Boolean.parseBoolean(s.trim());
+        }
+
+        private Duration duration(String option, Duration def) {
+            String s = config(option);
+            return (s == null) ? def : Engine.parseDuration(s);
+        }
+
+        public WebClient client() {
+            if (client == null) {
+                synchronized (this) {
+                    if (client == null) {
+                        client = WebClient.create(engine.getRxVertx(), options);
+                    }
+                }
+            }
+            return client;
+        }
+
+        synchronized void close() {
+            if (client != null) {
+                client.close();
+                client = null;
+            }
+        }
+
+        /**
+         * @param exchange A request to this host and its response
+         * @return The same, subject to this host's bulkhead and circuit breaker, and counted in its utilization
+         * and adaptive limit
+         */
+        public Single<HttpResponse<Buffer>> track(Single<HttpResponse<Buffer>> exchange) {
+            Single<HttpResponse<Buffer>> counted = Single.defer(() -> {
+                requests.incrementAndGet();
+                int current = inFlight.incrementAndGet();
+                peakInFlight.accumulateAndGet(current, Math::max);
+                long start = System.nanoTime();
+                return exchange
+                        .doOnSuccess(r -> sample(start, current, r.statusCode() == 429 || r.statusCode() == 503))
+                        .doOnError(t -> sample(start, current, true))
+                        .doFinally(inFlight::decrementAndGet);
+            });
+            return bulkhead.admit(breaker == null ? counted : breaker.protect(counted, r -> r.statusCode() >= 500));
+        }
+
+        private void sample(long start, int current, boolean dropped) {
+            if (limit != null) {
+                bulkhead.setMaxInFlight(limit.sample(System.nanoTime() - start, current, dropped));
+            }
+        }
+
+        JsonObject metrics() {
+            int current = inFlight.get();
+            JsonObject m = new JsonObject()
+                    .put("inFlight", current)
+                    .put("peakInFlight", peakInFlight.get())
+                    .put("requests", requests.get())
+                    .put("capacity", capacity);
+            if (capacity > 0) {
+                m.put("utilization", (double) current / capacity);
+            }
+            m.put("bulkhead", bulkhead.metrics());
+            if (limit != null) {
+                m.put("limit", limit.metrics());
+            }
+            if (breaker != null) {
+                m.put("breaker", breaker.metrics());
+            }
+            return m;
+        }
+    }
+}
@@ -20,6 +20,7 @@ import io.vertx.core.json.JsonObject;
  */
 public abstract class AbstractJsonObjectView extends JsonObject {
     protected JsonObject obj;
+    private Map<String, Object> mapView;
 
     public AbstractJsonObjectView(JsonObject obj) {
         this.obj = obj;
@@ -273,7 +274,10 @@ public abstract class AbstractJsonObjectView extends JsonObject {
 
     @Override
     public Map<String, Object> getMap() {
-        return new JsonObjectMapView(this, obj.getMap().keySet());
+        if (mapView == null) {
+            mapView = new JsonObjectMapView(this, obj.getMap().keySet());
+        }
+        return mapView;
     }
 
     @Override
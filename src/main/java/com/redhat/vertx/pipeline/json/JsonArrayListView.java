@@ -5,9 +5,14 @@ import io.vertx.core.json.JsonObject;
 
 import java.util.AbstractList;
 
+/**
+ * A read-only List view of a JsonArray, with nested objects and arrays seen as views in turn, each made once
+ * and reused.
+ */
 public class JsonArrayListView extends AbstractList<Object> {
 
     private final JsonArray array;
+    private volatile Object[] views;
 
     public JsonArrayListView(JsonArray array) {
         this.array=array;
@@ -16,16 +21,27 @@ public class JsonArrayListView extends AbstractList<Object> {
     @Override
     public Object get(int i) {
         Object o = array.getValue(i);
-        if (o instanceof JsonObject) {
-            JsonObject jo = (JsonObject)o;
-            return new JsonObjectMapView(jo);
-        } else if (o instanceof JsonArray) {
-            return new JsonArrayListView((JsonArray)o);
+        if (o instanceof JsonObject || o instanceof JsonArray) {
+            Object[] v = views;
+            if (v == null || v.length != array.size()) {
+                v = views = new Object[array.size()];
+            }
+            Object view = v[i];
+            if (view == null || !JsonObjectMapView.isViewOf(view, o)) {
+                // a lost race only costs an extra view
+                view = (o instanceof JsonObject) ? new JsonObjectMapView((JsonObject) o) : new JsonArrayListView((JsonArray) o);
+                v[i] = view;
+            }
+            return view;
         } else {
             return o;
         }
     }
 
+    boolean isViewOf(Object o) {
+        return array == o;
+    }
+
     @Override
     public int size() {
         return array.size();
@@ -0,0 +1,31 @@
+package com.redhat.vertx.pipeline.json;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Copies of step results, for the caches and coalescers which hand one result to several callers, each of which
+ * may do as it likes with its own.
+ */
+public final class JsonCopy {
+    private JsonCopy() {
+    }
+
+    /**
+     * @param value A String, Number, Boolean, JsonObject, JsonArray, or Buffer
+     * @return a deep copy of <code>value</code>, or <code>value</code> itself if it can't be changed
+     */
+    public static Object copyOf(Object value) {
+        if (value instanceof JsonObject) {
+            return ((JsonObject) value).copy();
+        } else if (value instanceof JsonArray) {
+            return ((JsonArray) value).copy();
+        } else if (value instanceof Buffer) {
+            return ((Buffer) value).copy();
+        } else if (value instanceof io.vertx.reactivex.core.buffer.Buffer) {
+            return ((io.vertx.reactivex.core.buffer.Buffer) value).copy();
+        }
+        return value;
+    }
+}
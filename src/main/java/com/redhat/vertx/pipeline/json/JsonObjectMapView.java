@@ -6,11 +6,21 @@ import io.vertx.core.json.JsonObject;
 import java.util.AbstractMap;
 import java.util.AbstractSet;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
+/**
+ * A read-only Map view of a JsonObject, with nested objects and arrays seen as views in turn.  The view of each
+ * nested object or array is made once and reused, and entries fetch their values only when asked, so that
+ * templates may look through a large document without copying or wrapping more of it than they use.
+ */
 class JsonObjectMapView extends AbstractMap<String,Object> {
     private final Set<String> keySet;
     private final JsonObject obj;
+    private volatile Map<String, Object> views;
 
     public JsonObjectMapView(JsonObject obj) {
         this(obj,obj.getMap().keySet());
@@ -40,25 +50,7 @@ class JsonObjectMapView extends AbstractMap<String,Object> {
 
                     @Override
                     public Entry<String, Object> next() {
-                        return new Entry<String, Object>() {
-                            String key = keys.next();
-                            Object val = get(key);
-
-                            @Override
-                            public String getKey() {
-                                return key;
-                            }
-
-                            @Override
-                            public Object getValue() {
-                                return val;
-                            }
-
-                            @Override
-                            public Object setValue(Object o) {
-                                throw new UnsupportedOperationException();
-                            }
-                        };
+                        return new LazyEntry(keys.next());
                     }
                 };
             }
@@ -70,21 +62,92 @@ class JsonObjectMapView extends AbstractMap<String,Object> {
         };
     }
 
+    @Override
+    public void forEach(BiConsumer<? super String, ? super Object> action) {
+        for (String key : keySet) {
+            action.accept(key, get(key));
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return keySet.contains(key);
+    }
+
     @Override
     public Object get(Object key) {
         Object o = obj.getValue((String)key);
-        if (o instanceof JsonObject) {
-            JsonObject jo = (JsonObject)o;
-            return new JsonObjectMapView(jo);
-        } else if (o instanceof JsonArray) {
-            return new JsonArrayListView((JsonArray)o);
-        } else {
-            return o;
+        if (o instanceof JsonObject || o instanceof JsonArray) {
+            return viewOf((String) key, o);
         }
+        return o;
+    }
+
+    private Object viewOf(String key, Object o) {
+        Map<String, Object> v = views;
+        if (v == null) {
+            synchronized (this) {
+                if (views == null) {
+                    views = new ConcurrentHashMap<>();
+                }
+                v = views;
+            }
+        }
+        Object view = v.get(key);
+        if (view == null || !isViewOf(view, o)) {
+            view = (o instanceof JsonObject) ? new JsonObjectMapView((JsonObject) o) : new JsonArrayListView((JsonArray) o);
+            v.put(key, view);
+        }
+        return view;
+    }
+
+    static boolean isViewOf(Object view, Object o) {
+        return (view instanceof JsonObjectMapView) ? ((JsonObjectMapView) view).obj == o :
+                (view instanceof JsonArrayListView) && ((JsonArrayListView) view).isViewOf(o);
     }
 
     @Override
     public int size() {
         return keySet.size();
     }
+
+    /**
+     * An entry which looks up its value when it's read, so iterating over keys costs nothing more.
+     */
+    private class LazyEntry implements Entry<String, Object> {
+        private final String key;
+
+        LazyEntry(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public String getKey() {
+            return key;
+        }
+
+        @Override
+        public Object getValue() {
+            return get(key);
+        }
+
+        @Override
+        public Object setValue(Object o) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Entry)) {
+                return false;
+            }
+            Entry<?, ?> e = (Entry<?, ?>) o;
+            return key.equals(e.getKey()) && Objects.equals(getValue(), e.getValue());
+        }
+
+        @Override
+        public int hashCode() {
+            return key.hashCode() ^ Objects.hashCode(getValue());
+        }
+    }
 }
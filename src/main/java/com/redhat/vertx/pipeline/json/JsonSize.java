@@ -0,0 +1,61 @@
+package com.redhat.vertx.pipeline.json;
+
+import java.util.List;
+import java.util.Map;
+
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
+
+/**
+ * Rough estimates of the heap retained by JSON-compatible values, for gauges rather than accounting.
+ * The figures assume a 64-bit JVM with compressed references and compact strings.
+ */
+public final class JsonSize {
+    private static final int OBJECT_HEADER = 16;
+    private static final int STRING = 40;
+    private static final int MAP = 48;
+    private static final int MAP_ENTRY = 36;
+    private static final int LIST = 40;
+    private static final int LIST_ELEMENT = 4;
+    private static final int BOXED_NUMBER = 16;
+
+    private JsonSize() {
+    }
+
+    /**
+     * @param value A String, Number, Boolean, JsonObject, JsonArray, Map, List, Buffer, or byte[]
+     * @return the approximate number of bytes retained by <code>value</code> and everything it refers to
+     */
+    public static long estimate(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 0;
+        } else if (value instanceof CharSequence) {
+            return STRING + ((CharSequence) value).length();
+        } else if (value instanceof Number) {
+            return BOXED_NUMBER;
+        } else if (value instanceof JsonObject) {
+            return OBJECT_HEADER + estimate(((JsonObject) value).getMap());
+        } else if (value instanceof JsonArray) {
+            return OBJECT_HEADER + estimate(((JsonArray) value).getList());
+        } else if (value instanceof Map) {
+            long size = MAP;
+            for (Map.Entry<?, ?> e : ((Map<?, ?>) value).entrySet()) {
+                size += MAP_ENTRY + estimate(e.getKey()) + estimate(e.getValue());
+            }
+            return size;
+        } else if (value instanceof List) {
+            long size = LIST;
+            for (Object o : (List<?>) value) {
+                size += LIST_ELEMENT + estimate(o);
+            }
+            return size;
+        } else if (value instanceof Buffer) {
+            return OBJECT_HEADER * 2 + ((Buffer) value).length();
+        } else if (value instanceof byte[]) {
+            return OBJECT_HEADER + ((byte[]) value).length;
+        } else {
+            return OBJECT_HEADER;
+        }
+    }
+}
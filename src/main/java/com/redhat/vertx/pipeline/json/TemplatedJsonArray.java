@@ -4,7 +4,9 @@ import java.time.Instant;
 import java.util.AbstractList;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.stream.Stream;
 
 import com.redhat.vertx.pipeline.templates.TemplateProcessor;
@@ -12,12 +14,22 @@ import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 
+/**
+ * A view of a JsonArray with the templates in its values applied against a context.  As with
+ * {@link TemplatedJsonObject}, each value is rendered once, when it's first read.
+ */
 public class TemplatedJsonArray extends JsonArray {
-    private final JsonObject context;
+    private static final Object NULL = new Object();
+    private final Map<String, Object> context;
     private final TemplateProcessor templateProcessor;
     private final JsonArray arr;
+    private volatile AtomicReferenceArray<Object> rendered;
 
     TemplatedJsonArray(JsonArray arr, TemplateProcessor templateProcessor, JsonObject context) {
+        this(arr, templateProcessor, new JsonObjectMapView(context));
+    }
+
+    TemplatedJsonArray(JsonArray arr, TemplateProcessor templateProcessor, Map<String, Object> context) {
         this.arr = arr;
         this.templateProcessor = templateProcessor;
         this.context = context;
@@ -83,9 +95,30 @@ public class TemplatedJsonArray extends JsonArray {
 
     @Override
     public Object getValue(int index) {
+        AtomicReferenceArray<Object> r = rendered;
+        if (r == null || r.length() != arr.size()) {
+            r = rendered = new AtomicReferenceArray<>(arr.size());
+        }
+        Object val = r.get(index);
+        if (val == null) {
+            val = render(index);
+            r.set(index, (val == null) ? NULL : val);
+            return val;
+        }
+        return (val == NULL) ? null : val;
+    }
+
+    /**
+     * Forget the rendered values, so that they're rendered afresh from the array and context when next read.
+     */
+    public void invalidate() {
+        rendered = null;
+    }
+
+    private Object render(int index) {
         Object val = arr.getValue(index);
         if (val instanceof String) {
-            val=templateProcessor.applyTemplate(new JsonObjectMapView(context),(String)val);
+            return templateProcessor.evaluate(context,(String)val);
         }
         if (val instanceof JsonObject) {
             val = new TemplatedJsonObject((JsonObject)val,templateProcessor,context);
@@ -8,21 +8,36 @@ import io.vertx.core.json.JsonObject;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A view of a JsonObject with the templates in its values applied against a context.  Each value is rendered
+ * the first time it's read and remembered after that, so a step may read its variables as often as it likes;
+ * call {@link #invalidate()} if the object or context change underneath it.  The templates of this object and
+ * all the objects and arrays within it share one rendering session.
+ */
 public class TemplatedJsonObject extends AbstractJsonObjectView {
-    private final JsonObject context;
+    private static final Object NULL = new Object();
+    private static final TemplateProcessor UNTEMPLATED = new NullTemplateProcessor();
+    private final Map<String, Object> context;
     private final TemplateProcessor templateProcessor;
     private final Set<String> protectedKeys;
+    private final Map<String, Object> rendered = new ConcurrentHashMap<>();
 
     public TemplatedJsonObject(JsonObject obj, TemplateProcessor templateProcessor, String... protectedKeys) {
         super(obj);
-        this.templateProcessor = templateProcessor;
-        this.context = obj;
+        this.context = new JsonObjectMapView(obj);
+        this.templateProcessor = templateProcessor.forEnvironment(context);
         this.protectedKeys = new HashSet<>(Arrays.asList(protectedKeys));
     }
 
-    TemplatedJsonObject(JsonObject obj, TemplateProcessor templateProcessor, JsonObject context) {
+    /**
+     * @param context The view of the root object against which templates are applied, shared by all the views
+     *                within it
+     */
+    TemplatedJsonObject(JsonObject obj, TemplateProcessor templateProcessor, Map<String, Object> context) {
         super(obj);
         this.templateProcessor = templateProcessor;
         this.context = context;
@@ -35,17 +50,43 @@ public class TemplatedJsonObject extends AbstractJsonObjectView {
         return super.containsKey(key);
     }
 
+    @Override
+    public Object getValue(String key, Object def) {
+        Object val = rendered.get(key);
+        if (val != null) {
+            return (val == NULL) ? null : val;
+        }
+        return super.getValue(key, def);
+    }
+
     @Override
     public Object getValue(String key) {
+        Object val = rendered.get(key);
+        if (val == null) {
+            val = render(key);
+            rendered.put(key, (val == null) ? NULL : val);
+            return val;
+        }
+        return (val == NULL) ? null : val;
+    }
+
+    /**
+     * Forget the rendered values, so that they're rendered afresh from the object and context when next read.
+     */
+    public void invalidate() {
+        rendered.clear();
+    }
+
+    private Object render(String key) {
         Object val = obj.getValue(key);
         if (val instanceof String) {
-            val = templateProcessor.applyTemplate(new JsonObjectMapView(context), (String)val);
+            return templateProcessor.evaluate(context, (String)val);
         }
 
         if (val instanceof JsonObject) {
-            val = new TemplatedJsonObject((JsonObject) val, protectedKeys.contains(key)? new NullTemplateProcessor():templateProcessor, context);
+            val = new TemplatedJsonObject((JsonObject) val, protectedKeys.contains(key)? UNTEMPLATED:templateProcessor, context);
         } else if (val instanceof JsonArray) {
-            val = new TemplatedJsonArray((JsonArray) val, protectedKeys.contains(key)? new NullTemplateProcessor():templateProcessor, context);
+            val = new TemplatedJsonArray((JsonArray) val, protectedKeys.contains(key)? UNTEMPLATED:templateProcessor, context);
         }
         return val;
     }
@@ -1,22 +1,43 @@
 package com.redhat.vertx.pipeline.steps;
 
 import com.redhat.vertx.pipeline.AbstractStep;
+import com.redhat.vertx.pipeline.ReadsVariablesOnly;
 import com.redhat.vertx.pipeline.Step;
+import com.redhat.vertx.pipeline.json.AbstractJsonObjectView;
+import com.redhat.vertx.pipeline.json.TemplatedJsonArray;
 import io.vertx.core.json.DecodeException;
 import io.vertx.core.json.Json;
 import io.vertx.core.json.JsonObject;
 import org.kohsuke.MetaInfServices;
 
+@ReadsVariablesOnly
 @MetaInfServices(Step.class)
 public class Copy extends AbstractStep {
 
     @Override
     public Object executeFast(JsonObject env) {
-        String s = env.getString("from");
-        try {
-            return Json.decodeValue(s);
-        } catch (DecodeException e) {
-            return s;
+        Object from = env.getValue("from");
+        if (from instanceof AbstractJsonObjectView || from instanceof TemplatedJsonArray) {
+            // written out in the step definition; detach it from the step environment
+            return Json.decodeValue(from.toString());
         }
+        if (from instanceof String && looksLikeJson((String) from)) {
+            try {
+                return Json.decodeValue((String) from);
+            } catch (DecodeException e) {
+                return from;
+            }
+        }
+        return from;
+    }
+
+    private static boolean looksLikeJson(String s) {
+        s = s.trim();
+        if (s.isEmpty()) {
+            return false;
+        }
+        char c = s.charAt(0);
+        return c == '{' || c == '[' || c == '"' || c == '-' || Character.isDigit(c)
+                || s.equals("true") || s.equals("false") || s.equals("null");
     }
 }
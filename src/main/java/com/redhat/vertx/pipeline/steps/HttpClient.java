@@ -3,13 +3,24 @@ package com.redhat.vertx.pipeline.steps;
 import java.io.IOException;
 import java.net.URI;
 import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.logging.Logger;
 
 import com.redhat.vertx.Engine;
 import com.redhat.vertx.pipeline.AbstractStep;
+import com.redhat.vertx.pipeline.ReadsVariablesOnly;
 import com.redhat.vertx.pipeline.Step;
+import com.redhat.vertx.pipeline.http.HedgePolicy;
+import com.redhat.vertx.pipeline.http.HttpResponseCache;
+import com.redhat.vertx.pipeline.http.LatencyTracker;
+import com.redhat.vertx.pipeline.http.RetryBudget;
+import com.redhat.vertx.pipeline.http.RetryPolicy;
+import com.redhat.vertx.pipeline.http.SingleFlight;
+import com.redhat.vertx.pipeline.http.WebClients;
 import com.redhat.vertx.pipeline.templates.MissingParameterException;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
@@ -25,10 +36,21 @@ import io.vertx.reactivex.ext.web.client.HttpResponse;
 import io.vertx.reactivex.ext.web.client.WebClient;
 import org.kohsuke.MetaInfServices;
 
+@ReadsVariablesOnly
 @MetaInfServices(Step.class)
 public class HttpClient extends AbstractStep {
     private static Logger logger = Logger.getLogger(HttpClient.class.getName());
+    private static final Set<HttpMethod> IDEMPOTENT_METHODS = EnumSet.of(HttpMethod.GET, HttpMethod.HEAD,
+            HttpMethod.PUT, HttpMethod.DELETE, HttpMethod.OPTIONS, HttpMethod.TRACE);
     private WebClient http;
+    private HttpResponseCache responseCache;
+    private SingleFlight singleFlight;
+    private boolean coalesceByDefault;
+    private WebClients webClients;
+    private RetryBudget retryBudget;
+    private RetryPolicy retryPolicy;
+    private HedgePolicy hedgePolicy;
+    private final LatencyTracker latencies = new LatencyTracker(1000);
 
     public String getUrl(JsonObject env) {
         String url = env.getString("url");
@@ -41,6 +63,14 @@ public class HttpClient extends AbstractStep {
     @Override
     public Completable init(Engine engine, JsonObject config) {
         config.put("timeout",config.getString("timeout", "PT30.000S"));
+        responseCache = HttpResponseCache.forEngine(engine);
+        singleFlight = SingleFlight.forEngine(engine);
+        coalesceByDefault = Boolean.parseBoolean(engine.getConfigString("http.coalesce", "false"));
+        webClients = WebClients.forEngine(engine);
+        retryBudget = RetryBudget.forEngine(engine);
+        JsonObject vars = config.getJsonObject(getShortName(), new JsonObject());
+        retryPolicy = RetryPolicy.fromConfig(vars.getValue("retry"));
+        hedgePolicy = HedgePolicy.fromConfig(vars.getValue("hedge"));
         return super.init(engine, config);
     }
 
@@ -74,7 +104,7 @@ public class HttpClient extends AbstractStep {
             pqf += "#" + uri.getFragment();
         }
 
-        return webClient()
+        return webClient(uri)
                 .request(getMethod(env), uri.getPort(), uri.getHost(), pqf)
                 .putHeaders(getHeaders(env));
     }
@@ -130,23 +160,86 @@ public class HttpClient extends AbstractStep {
             return Maybe.error(e);
         }
 
-        return send(request, env).flatMapMaybe(this::rxProcessResponse);
+        Maybe<Object> response;
+        if (responseCache == null || !HttpResponseCache.isCacheable(getMethod(env), env.containsKey("body"))) {
+            response = send(request, env).flatMapMaybe(this::rxProcessResponse);
+        } else {
+            response = responseCache.get(HttpResponseCache.keyFor(getMethod(env), getUrl(env), request.headers()),
+                    HttpResponseCache.hasCredentials(request.headers()),
+                    validators -> {
+                        validators.forEach(request::putHeader);
+                        return send(request, env);
+                    },
+                    this::processResponse);
+        }
+        String coalescingKey = getCoalescingKey(env);
+        return (singleFlight == null || coalescingKey == null) ?
+                response :
+                singleFlight.execute(coalescingKey, () -> response);
+    }
+
+    /**
+     * Requests with the same key, in flight at the same time, share one response.  By default nothing is
+     * shared; with system config <code>http.coalesce</code> true, GET and HEAD requests with the same method,
+     * url, and headers share.  Set <code>coalesce</code> to false to never share, true to share (other methods
+     * matching the body as well), or to a key of your own.
+     *
+     * @return The key, or null if this request shouldn't be shared
+     */
+    public String getCoalescingKey(JsonObject env) {
+        HttpMethod method = getMethod(env);
+        Object coalesce = env.getValue("coalesce");
+        if (coalesce == null) {
+            coalesce = coalesceByDefault && HttpResponseCache.isCacheable(method, env.containsKey("body"));
+        }
+        String s = coalesce.toString();
+        if ("false".equalsIgnoreCase(s)) {
+            return null;
+        }
+        if (!"true".equalsIgnoreCase(s)) {
+            return s;
+        }
+        return method + " " + getUrl(env) + " " + env.getValue("headers") + " " + env.getValue("body");
     }
 
     public Single<HttpResponse<Buffer>> send(HttpRequest<Buffer> request, JsonObject env) {
-        if (env.containsKey("body")) {
-            return request.rxSendJson(env.getValue("body"));
-        } else {
-            return request.rxSend();
+        Single<HttpResponse<Buffer>> response = env.containsKey("body") ?
+                request.rxSendJson(env.getValue("body")) :
+                request.rxSend();
+        if (webClients != null) {
+            response = webClients.forHost(URI.create(getUrl(env))).track(response);
+        }
+        Single<HttpResponse<Buffer>> attempt = timed(response);
+        HttpMethod method = getMethod(env);
+        if (retryBudget == null || !IDEMPOTENT_METHODS.contains(method)) {
+            return attempt;
         }
+        Single<HttpResponse<Buffer>> hedged = (hedgePolicy == null) ?
+                attempt :
+                hedgePolicy.apply(method, attempt, latencies, retryBudget);
+        Single<HttpResponse<Buffer>> retried = (retryPolicy == null) ? hedged : retryPolicy.apply(hedged, retryBudget);
+        return retried.doOnSubscribe(d -> retryBudget.deposit());
     }
 
-    protected WebClient webClient() {
+    private Single<HttpResponse<Buffer>> timed(Single<HttpResponse<Buffer>> response) {
+        return Single.defer(() -> {
+            long start = System.nanoTime();
+            return response.doOnSuccess(r -> latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)));
+        });
+    }
+
+    /**
+     * @return The engine's shared client for the host, or one for this step alone if the engine has none
+     */
+    protected WebClient webClient(URI uri) {
+        if (webClients != null) {
+            return webClients.forHost(uri).client();
+        }
         if (http == null) {
             WebClientOptions options = new WebClientOptions()
                     .setUserAgent("vertx-engine")
                     .setKeepAlive(true)
-                    .setConnectTimeout(30)
+                    .setConnectTimeout(30000)
                     .setKeepAliveTimeout(300)
                     .setIdleTimeout(300);
             http = WebClient.create(getVertx(),options);
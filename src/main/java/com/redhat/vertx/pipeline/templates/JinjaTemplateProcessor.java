@@ -1,26 +1,59 @@
 package com.redhat.vertx.pipeline.templates;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.ServiceLoader;
+import java.util.function.Function;
 import java.util.logging.Logger;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
 import com.hubspot.jinjava.Jinjava;
 import com.hubspot.jinjava.JinjavaConfig;
 import com.hubspot.jinjava.interpret.Context;
+import com.hubspot.jinjava.interpret.InterpretException;
+import com.hubspot.jinjava.interpret.JinjavaInterpreter;
 import com.hubspot.jinjava.interpret.RenderResult;
 import com.hubspot.jinjava.interpret.TemplateError;
+import com.hubspot.jinjava.interpret.TemplateSyntaxException;
 import com.hubspot.jinjava.lib.filter.Filter;
+import com.hubspot.jinjava.tree.Node;
+import io.vertx.core.json.JsonArray;
+import io.vertx.core.json.JsonObject;
 
+/**
+ * Applies Jinja templates.  Strings with no template markup are returned as they are, without going near the
+ * renderer, and the parsed form of each template is kept (up to <code>cacheSize</code> of them, least recently
+ * used first out) so that it's parsed only once however many documents it's applied to.
+ *
+ * A string which is a single expression, such as <code>{{ doc.count &gt; 3 }}</code>, is {@link #evaluate evaluated}
+ * to a native value rather than rendered to text.
+ *
+ * Templates rendered {@link #forEnvironment for one environment} share the context holding its variables, so that
+ * the environment is copied into a context once rather than for every template.  Each template still gets an
+ * interpreter of its own, since an interpreter keeps errors, blocks, and extended templates from one render to the
+ * next; interpreters are cheap next to the context.
+ */
 public class JinjaTemplateProcessor implements TemplateProcessor {
+    public static final int DEFAULT_CACHE_SIZE = 10_000;
     private Logger logger = Logger.getLogger(this.getClass().getName());
     private final Jinjava jinjava;
+    private final JinjavaConfig config;
+    private final Cache<String, Node> parsed;
 
     public JinjaTemplateProcessor() {
+        this(DEFAULT_CACHE_SIZE);
+    }
+
+    public JinjaTemplateProcessor(int cacheSize) {
         JinjavaConfig.Builder builder = JinjavaConfig.newBuilder();
         builder.withFailOnUnknownTokens(true);
-        JinjavaConfig config = builder.build();
+        config = builder.build();
         jinjava = new Jinjava(config);
+        parsed = Caffeine.newBuilder().maximumSize(cacheSize).recordStats().build();
         Context ctx = jinjava.getGlobalContext();
         ServiceLoader.load(Filter.class).forEach(ctx::registerFilter);
         ServiceLoader.load(JinjaFunctionDefinition.class)
@@ -29,18 +62,198 @@ public class JinjaTemplateProcessor implements TemplateProcessor {
 
     @Override
     public String applyTemplate(Map<String,Object> env, String str) {
-        RenderResult rr = jinjava.renderForResult(str, env);
-        if (rr.hasErrors()) {
-            Optional<TemplateError> unkownToken = rr.getErrors().stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.FATAL && te.getMessage().startsWith("UnknownTokenException:")).findAny();
+        return hasMarkup(str) ? new Session(env).applyTemplate(env, str) : str;
+    }
+
+    @Override
+    public Object evaluate(Map<String,Object> env, String str) {
+        return hasMarkup(str) ? new Session(env).evaluate(env, str) : str;
+    }
+
+    /**
+     * @return A processor which keeps one context for the environment, and renders each template in a fresh scope
+     * of it, rather than copying the environment into a new context for every template.  Its renders take turns,
+     * so templates for one environment are rendered one at a time; those of different environments aren't held up
+     */
+    @Override
+    public TemplateProcessor forEnvironment(Map<String,Object> env) {
+        return new Session(env);
+    }
+
+    /**
+     * @return The expression, if the string is nothing but one <code>{{ expression }}</code>, or null
+     */
+    static String singleExpression(String str) {
+        int end = str.length() - 2;
+        if (end < 2 || !str.startsWith("{{") || str.indexOf("}}") != end || str.lastIndexOf("{{") != 0
+                || str.contains("{%") || str.contains("{#")) {
+            return null;
+        }
+        String expression = str.substring(2, end).trim();
+        if (expression.isEmpty() || expression.startsWith("-") || expression.endsWith("-")) {
+            // whitespace control belongs to rendering
+            return null;
+        }
+        return expression;
+    }
+
+    /**
+     * @return true if the string contains template markup (an expression, a tag, or a comment), and so can't be
+     * taken literally
+     */
+    public static boolean hasMarkup(String str) {
+        return str.contains("{{") || str.contains("{%") || str.contains("{#");
+    }
+
+    /**
+     * @return The template's syntax tree, from the cache or freshly parsed, or null if it doesn't parse cleanly
+     */
+    private Node template(String str) {
+        Node root = parsed.getIfPresent(str);
+        if (root == null) {
+            root = parse(str);
+            if (root != null) {
+                parsed.put(str, root);
+            }
+        }
+        return root;
+    }
+
+    private Node parse(String str) {
+        JinjavaInterpreter interpreter = new JinjavaInterpreter(jinjava, new Context(jinjava.getGlobalContext()), config);
+        JinjavaInterpreter.pushCurrent(interpreter);
+        try {
+            Node root = interpreter.parse(str);
+            return interpreter.getErrors().isEmpty() ? root : null;
+        } catch (RuntimeException e) {
+            return null;
+        } finally {
+            JinjavaInterpreter.popCurrent();
+        }
+    }
+
+    /**
+     * Renders templates against one environment.  The context holding the environment is set up once; each
+     * template is rendered by an interpreter of its own (which is cheap, unlike copying the environment into a
+     * context), in a scope of its own which is dropped afterwards.  So nothing one template sets, and none of
+     * its errors, blocks, or parent templates, is seen by the next.  A session may be shared between threads,
+     * but renders one template at a time.
+     */
+    private class Session implements TemplateProcessor {
+        private final Map<String,Object> env;
+        private Context context;
+
+        Session(Map<String,Object> env) {
+            this.env = env;
+        }
+
+        @Override
+        public String applyTemplate(Map<String,Object> env, String str) {
+            if (env != this.env) {
+                return JinjaTemplateProcessor.this.applyTemplate(env, str);
+            }
+            if (!hasMarkup(str)) {
+                return str;
+            }
+            Node root = template(str);
+            if (root == null) {
+                // let the renderer report whatever's wrong with it
+                RenderResult rr = jinjava.renderForResult(str, env);
+                return result(rr.getOutput(), rr.getErrors());
+            }
+            return (String) run(i -> i.render(root));
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Object evaluate(Map<String,Object> env, String str) {
+            if (env != this.env) {
+                return JinjaTemplateProcessor.this.evaluate(env, str);
+            }
+            String expression = singleExpression(str);
+            if (expression == null) {
+                return applyTemplate(env, str);
+            }
+            Object value = run(i -> {
+                Object v = i.resolveELExpression(expression, 1);
+                // rendered, a null is empty
+                return (v == null) ? "" : v;
+            });
+            if (value == null || value instanceof Number || value instanceof Boolean) {
+                return value;
+            } else if (value instanceof String) {
+                // rendering would interpret markup in the result, too
+                return hasMarkup((String) value) ? applyTemplate(env, str) : value;
+            }
+            try {
+                if (value instanceof Map) {
+                    return new JsonObject((Map<String, Object>) value).copy();
+                } else if (value instanceof List) {
+                    return new JsonArray((List<Object>) value).copy();
+                }
+            } catch (IllegalStateException | ClassCastException e) {
+                // something in it has no JSON form; fall through to its text
+            }
+            return applyTemplate(env, str);
+        }
+
+        /**
+         * Runs the work with a new interpreter, in a new scope of this session's context, as
+         * {@link Jinjava#renderForResult(String, Map)} runs a render, and handles the errors from it the same way.
+         * Synchronized because the scope is entered and left on the shared context.
+         */
+        private synchronized Object run(Function<JinjavaInterpreter, Object> work) {
+            if (context == null) {
+                context = new Context(jinjava.getGlobalContext(), env);
+            }
+            JinjavaInterpreter interpreter = new JinjavaInterpreter(jinjava, context, config);
+            interpreter.enterScope();
+            JinjavaInterpreter.pushCurrent(interpreter);
+            Object output = null;
+            List<TemplateError> errors = new ArrayList<>();
+            try {
+                output = work.apply(interpreter);
+            } catch (TemplateSyntaxException e) {
+                errors.add(TemplateError.fromException(e));
+            } catch (InterpretException e) {
+                errors.add(TemplateError.fromSyntaxError(e));
+            } catch (Exception e) {
+                errors.add(TemplateError.fromException(e));
+            } finally {
+                interpreter.leaveScope();
+                jinjava.getGlobalContext().reset();
+                JinjavaInterpreter.popCurrent();
+            }
+            errors.addAll(interpreter.getErrors());
+            return result(output, errors);
+        }
+    }
+
+    private <T> T result(T output, List<TemplateError> errors) {
+        if (!errors.isEmpty()) {
+            Optional<TemplateError> unkownToken = errors.stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.FATAL && te.getMessage().startsWith("UnknownTokenException:")).findAny();
             if (unkownToken.isPresent()) {
                 throw new MissingParameterException(unkownToken.get().getMessage().split(": ")[2]);
             }
-            rr.getErrors().stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.FATAL)
+            errors.stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.FATAL)
                     .iterator().forEachRemaining(te ->logger.severe(te.toString()));
-            rr.getErrors().stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.WARNING)
+            errors.stream().filter(te -> te.getSeverity() == TemplateError.ErrorType.WARNING)
                     .iterator().forEachRemaining(te ->logger.warning(te.toString()));
             return null;
         }
-        return rr.getOutput();
+        return output;
+    }
+
+    /**
+     * @return The number of parsed templates kept, and how often a template was found among them
+     */
+    public JsonObject metrics() {
+        CacheStats stats = parsed.stats();
+        return new JsonObject()
+                .put("size", parsed.estimatedSize())
+                .put("hits", stats.hitCount())
+                .put("misses", stats.missCount())
+                .put("hitRatio", stats.hitRate())
+                .put("evictions", stats.evictionCount());
     }
 }
@@ -12,4 +12,26 @@ public interface TemplateProcessor {
      * @return An unmodified string if it contains no template markup, or the modified string with template applied
      */
     public String applyTemplate(Map<String,Object> env, String str);
+
+    /**
+     * Like {@link #applyTemplate(Map, String)}, except that a string which is nothing but a single expression
+     * may evaluate to whatever the expression yields: a String, Number, Boolean, JsonObject, or JsonArray.
+     *
+     * @param env The environment from which to look up variables
+     * @param str The string to evaluate
+     * @throws MissingParameterException if a variable mentioned in the string cannot be found in the environment.
+     * @return The value of the expression, or the string with the template applied
+     */
+    default Object evaluate(Map<String,Object> env, String str) {
+        return applyTemplate(env, str);
+    }
+
+    /**
+     * @param env An environment against which many strings will be rendered
+     * @return A processor which may render strings against that environment (the same instance) more cheaply
+     * than this one, and renders against any other as this one does
+     */
+    default TemplateProcessor forEnvironment(Map<String,Object> env) {
+        return this;
+    }
 }
@@ -0,0 +1,98 @@
+package com.redhat.vertx;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.reactivex.Single;
+import io.reactivex.observers.TestObserver;
+import io.reactivex.subjects.CompletableSubject;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdmissionControlTest {
+    private static final int DEEP = 100_000;
+
+    @Test
+    public void testDrainsDeepQueueOfSynchronousWork() {
+        AdmissionControl admission = new AdmissionControl(1, DEEP, AdmissionControl.Overflow.WAIT);
+        CompletableSubject gate = CompletableSubject.create();
+        TestObserver<Integer> first = admission.admit(gate.andThen(Single.just(-1))).test();
+        List<TestObserver<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < DEEP; i++) {
+            queued.add(admission.admit(Single.just(i)).test());
+        }
+        assertThat(admission.metrics().getInteger("queued")).isEqualTo(DEEP);
+
+        gate.onComplete();
+        first.assertValue(-1);
+        for (int i = 0; i < DEEP; i++) {
+            queued.get(i).assertValue(i);
+        }
+        JsonObject metrics = admission.metrics();
+        assertThat(metrics.getInteger("inFlight")).isZero();
+        assertThat(metrics.getInteger("queued")).isZero();
+        assertThat(metrics.getLong("admitted")).isEqualTo(DEEP + 1);
+    }
+
+    @Test
+    public void testRaisingTheLimitDrainsDeepQueue() {
+        AdmissionControl admission = new AdmissionControl(1, DEEP, AdmissionControl.Overflow.WAIT);
+        CompletableSubject gate = CompletableSubject.create();
+        TestObserver<Integer> first = admission.admit(gate.andThen(Single.just(-1))).test();
+        List<TestObserver<Integer>> queued = new ArrayList<>();
+        for (int i = 0; i < DEEP; i++) {
+            queued.add(admission.admit(Single.just(i)).test());
+        }
+
+        admission.setMaxInFlight(2);
+        queued.forEach(TestObserver::assertComplete);
+        first.assertNotComplete();
+        assertThat(admission.metrics().getInteger("inFlight")).isEqualTo(1);
+
+        gate.onComplete();
+        assertThat(admission.metrics().getInteger("inFlight")).isZero();
+    }
+
+    @Test
+    public void testCancelledWaiterPassesItsPlaceOn() {
+        AdmissionControl admission = new AdmissionControl(1, 10, AdmissionControl.Overflow.WAIT);
+        CompletableSubject gate = CompletableSubject.create();
+        admission.admit(gate.andThen(Single.just(-1))).test();
+        TestObserver<Integer> cancelled = admission.admit(Single.just(0)).test();
+        TestObserver<Integer> next = admission.admit(Single.just(1)).test();
+
+        cancelled.dispose();
+        gate.onComplete();
+        next.assertValue(1);
+        assertThat(admission.metrics().getInteger("inFlight")).isZero();
+    }
+
+    @Test
+    public void testOverflowPolicies() {
+        CompletableSubject gate = CompletableSubject.create();
+
+        AdmissionControl reject = new AdmissionControl(1, 10, AdmissionControl.Overflow.REJECT);
+        reject.admit(gate.andThen(Single.just(-1))).test();
+        reject.admit(Single.just(0)).test().assertError(RejectedExecutionException.class);
+        assertThat(reject.metrics().getLong("rejected")).isEqualTo(1);
+
+        AdmissionControl wait = new AdmissionControl(1, 1, AdmissionControl.Overflow.WAIT);
+        wait.admit(gate.andThen(Single.just(-1))).test();
+        TestObserver<Integer> waiting = wait.admit(Single.just(0)).test();
+        wait.admit(Single.just(1)).test().assertError(RejectedExecutionException.class);
+
+        AdmissionControl dropOldest = new AdmissionControl(1, 1, AdmissionControl.Overflow.DROP_OLDEST);
+        dropOldest.admit(gate.andThen(Single.just(-1))).test();
+        TestObserver<Integer> oldest = dropOldest.admit(Single.just(0)).test();
+        TestObserver<Integer> newest = dropOldest.admit(Single.just(1)).test();
+        oldest.assertError(RejectedExecutionException.class);
+
+        gate.onComplete();
+        waiting.assertValue(0);
+        newest.assertValue(1);
+        assertThat(dropOldest.metrics().getLong("dropped")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,373 @@
+package com.redhat.vertx;
+
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.redhat.ResourceUtils;
+import com.redhat.vertx.pipeline.AbstractStep;
+import com.redhat.vertx.pipeline.EventBusMessage;
+import com.redhat.vertx.pipeline.ReadsVariablesOnly;
+import com.redhat.vertx.pipeline.Step;
+import com.redhat.vertx.pipeline.templates.MissingParameterException;
+import io.reactivex.Flowable;
+import io.reactivex.Maybe;
+import io.reactivex.subjects.CompletableSubject;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.kohsuke.MetaInfServices;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
+
+@ExtendWith(VertxExtension.class)
+public class EngineTest {
+
+    @ReadsVariablesOnly
+    @MetaInfServices(Step.class)
+    public static class Exclaim extends AbstractStep {
+        static final AtomicInteger executions = new AtomicInteger();
+
+        @Override
+        public Object executeFast(JsonObject env) {
+            executions.incrementAndGet();
+            return env.getString("of") + "!";
+        }
+    }
+
+    @MetaInfServices(Step.class)
+    public static class Tamper extends AbstractStep {
+        @Override
+        public Object executeFast(JsonObject env) {
+            JsonObject nested = env.getJsonObject("nested");
+            String before = nested.getString("k");
+            try {
+                nested.put("k", "tampered");
+            } catch (UnsupportedOperationException e) {
+                // as it should be
+            }
+            return before;
+        }
+    }
+
+    @Test
+    public void testNestedVarsNotSharedBetweenDocuments(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { tamper: { nested: { k: original } }, register: x } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        for (int i = 0; i < 2; i++) {
+            JsonObject doc = (JsonObject) e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+            assertThat(doc.getString("x")).isEqualTo("original");
+        }
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testServicesClosedOnUndeploy(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"));
+        String deploymentId = vertx.rxDeployVerticle(e).blockingGet();
+        AtomicInteger closed = new AtomicInteger();
+        e.getService(AutoCloseable.class, () -> closed::incrementAndGet);
+
+        vertx.rxUndeploy(deploymentId).blockingAwait();
+        assertThat(closed.get()).isEqualTo(1);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testScheduler(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"));
+        assertThatExceptionOfType(IllegalStateException.class).isThrownBy(e::getScheduler);
+        vertx.rxDeployVerticle(e).blockingGet();
+
+        String thread = Maybe.fromCallable(() -> Thread.currentThread().getName())
+                .subscribeOn(e.getScheduler())
+                .blockingGet();
+        assertThat(thread).startsWith("vert.x-eventloop-thread");
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testDocumentsReleasedOnCompletion(Vertx vertx, VertxTestContext testContext) throws Exception {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        JsonObject doc = (JsonObject) e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+
+        // the result is delivered before the engine lets go of the document
+        awaitReleased(e, doc.getString(Engine.DOC_UUID));
+        JsonObject documents = e.getMetrics().getJsonObject("documents");
+        assertThat(documents.getLong("live")).isZero();
+        assertThat(documents.getInteger("cached")).isZero();
+        assertThat(documents.getLong("retainedBytes")).isZero();
+        testContext.completeNow();
+    }
+
+    private static void awaitReleased(Engine e, String documentId) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 2000;
+        while (e.getDocument(documentId) != null) {
+            assertThat(System.currentTimeMillis()).as("document released in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+    }
+
+    @Test
+    public void testDocumentRetention(Vertx vertx, VertxTestContext testContext) throws Exception {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"),
+                new JsonObject().put("engine.document.retention", "0.2S"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        JsonObject doc = (JsonObject) e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String documentId = doc.getString(Engine.DOC_UUID);
+
+        assertThat(e.getDocument(documentId)).isEqualTo(doc);
+        JsonObject documents = e.getMetrics().getJsonObject("documents");
+        assertThat(documents.getLong("live")).isZero();
+        assertThat(documents.getInteger("cached")).isEqualTo(1);
+        assertThat(documents.getLong("retainedBytes")).isPositive();
+
+        awaitReleased(e, documentId);
+        assertThat(e.getMetrics().getJsonObject("documents").getLong("retainedBytes")).isZero();
+        testContext.completeNow();
+    }
+
+    /**
+     * Holds each document until the test opens the gate
+     */
+    @ReadsVariablesOnly
+    @MetaInfServices(Step.class)
+    public static class Hold extends AbstractStep {
+        static volatile CompletableSubject gate = CompletableSubject.create();
+
+        @Override
+        public Maybe<Object> execute(JsonObject env) {
+            return gate.andThen(Maybe.just("held"));
+        }
+    }
+
+    @Test
+    public void testAdmissionControlRejects(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { hold: {}, register: z } ]", new JsonObject()
+                .put("engine.admission.maxInFlight", 1)
+                .put("engine.admission.overflow", "reject"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        Hold.gate = CompletableSubject.create();
+        var first = e.execute(new JsonObject()).test();
+        assertThatExceptionOfType(RejectedExecutionException.class)
+                .isThrownBy(() -> e.execute(new JsonObject()).blockingGet());
+        Hold.gate.onComplete();
+        first.awaitDone(2, TimeUnit.SECONDS).assertNoErrors().assertValueCount(1);
+
+        JsonObject admission = e.getMetrics().getJsonObject("admission");
+        assertThat(admission.getLong("rejected")).isEqualTo(1);
+        assertThat(admission.getInteger("inFlight")).isZero();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testAdmissionControlQueues(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { hold: {}, register: z } ]", new JsonObject()
+                .put("engine.admission.maxInFlight", "1")
+                .put("engine.admission.maxQueued", "1"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        Hold.gate = CompletableSubject.create();
+        var first = e.execute(new JsonObject()).test();
+        var second = e.execute(new JsonObject()).test();
+        assertThat(e.getMetrics().getJsonObject("admission").getInteger("queued")).isEqualTo(1);
+        assertThatExceptionOfType(RejectedExecutionException.class)
+                .isThrownBy(() -> e.execute(new JsonObject()).blockingGet());
+        second.assertNotComplete();
+
+        Hold.gate.onComplete();
+        first.awaitDone(2, TimeUnit.SECONDS).assertNoErrors().assertValueCount(1);
+        second.awaitDone(2, TimeUnit.SECONDS).assertNoErrors().assertValueCount(1);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testBatchExecution(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        List<Result> results = e.execute(Flowable.range(0, 50).map(i -> new JsonObject().put("i", i)), 4, true)
+                .toList()
+                .timeout(5, TimeUnit.SECONDS)
+                .blockingGet();
+
+        assertThat(results).hasSize(50);
+        for (int i = 0; i < results.size(); i++) {
+            Result r = results.get(i);
+            assertThat(r.isSuccess()).isTrue();
+            assertThat(r.getInput().getInteger("i")).isEqualTo(i);
+            assertThat(((JsonObject) r.getOutput()).getString("greetings")).isEqualTo("hello, Jason");
+        }
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testBatchExecutionReportsFailures(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { copy: { from: \"{{ doc.absent }}\" }, register: x } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        List<Result> results = e.execute(Flowable.just(new JsonObject(), new JsonObject()), 2, false)
+                .toList()
+                .timeout(5, TimeUnit.SECONDS)
+                .blockingGet();
+
+        assertThat(results).hasSize(2).noneMatch(Result::isSuccess);
+        assertThat(results.get(0).getError()).isInstanceOf(MissingParameterException.class);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testDocumentSnapshotsAreStable(Vertx vertx, VertxTestContext testContext) throws Exception {
+        Engine e = new Engine("[ { copy: { from: one }, register: a }, { sleep: { duration: PT0.3S } }, " +
+                "{ copy: { from: two }, register: b } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        AtomicReference<String> documentId = new AtomicReference<>();
+        vertx.eventBus().<String>consumer(EventBusMessage.DOCUMENT_STARTED, m -> documentId.set(m.body()));
+        JsonObject input = new JsonObject();
+        var execution = e.execute(input).test();
+
+        Thread.sleep(150);
+        JsonObject snapshot = e.getDocument(documentId.get());
+        assertThat(snapshot.getString("a")).isEqualTo("one");
+        JsonObject result = (JsonObject) execution.awaitDone(2, TimeUnit.SECONDS).values().get(0);
+
+        assertThat(result.getString("b")).isEqualTo("two");
+        assertThat(snapshot.containsKey("b")).isFalse();
+        assertThat(input.isEmpty()).isTrue();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testUpdateLeavesEarlierSnapshotsAlone(Vertx vertx, VertxTestContext testContext) throws Exception {
+        Engine e = new Engine("[ { hold: {}, register: z } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Hold.gate = CompletableSubject.create();
+        String documentId = startHeld(vertx, e, new JsonObject().put("a", "one"));
+        JsonObject before = e.getDocument(documentId);
+
+        e.updateDocument(documentId, new JsonObject().put("a", "two")).blockingAwait();
+        e.updateDocument(documentId, new JsonObject().put("b", "new")).blockingAwait();
+
+        assertThat(before.getString("a")).isEqualTo("one");
+        assertThat(before.containsKey("b")).isFalse();
+        assertThat(e.getDocument(documentId).getString("a")).isEqualTo("two");
+        assertThat(e.getDocument(documentId).getString("b")).isEqualTo("new");
+        Hold.gate.onComplete();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testDocumentChanges(Vertx vertx, VertxTestContext testContext) throws Exception {
+        Engine e = new Engine("[ { hold: {}, register: z } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Hold.gate = CompletableSubject.create();
+        String documentId = startHeld(vertx, e, new JsonObject());
+        var changes = e.getDocumentChanges(documentId).test();
+
+        e.updateDocument(documentId, new JsonObject().put("b", "two")).blockingAwait();
+        Hold.gate.onComplete();
+
+        changes.awaitDone(2, TimeUnit.SECONDS).assertComplete().assertValues("b", "z");
+        assertThat(e.getDocumentChanges("unknown").test().assertComplete().values()).isEmpty();
+        testContext.completeNow();
+    }
+
+    /**
+     * Start a document through a pipeline which holds it, and wait until it's under way
+     *
+     * @return The id of the document
+     */
+    private static String startHeld(Vertx vertx, Engine e, JsonObject input) throws InterruptedException {
+        AtomicReference<String> documentId = new AtomicReference<>();
+        vertx.eventBus().<String>consumer(EventBusMessage.DOCUMENT_STARTED, m -> documentId.compareAndSet(null, m.body()));
+        e.execute(input).subscribe((o, t) -> { });
+        long deadline = System.currentTimeMillis() + 2000;
+        while (documentId.get() == null) {
+            assertThat(System.currentTimeMillis()).as("document started in time").isLessThan(deadline);
+            Thread.sleep(5);
+        }
+        return documentId.get();
+    }
+
+    @Test
+    public void testReexecuteRunsOnlyAffectedSteps(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { exclaim: { of: \"{{ doc.a }}\" }, register: x }, " +
+                "{ exclaim: { of: \"{{ doc.b }}\" }, register: y }, " +
+                "{ exclaim: { of: \"{{ doc.x }}\" }, register: z } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Exclaim.executions.set(0);
+        JsonObject first = (JsonObject) e.execute(new JsonObject().put("a", "1").put("b", "2"))
+                .timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(Exclaim.executions.get()).isEqualTo(3);
+
+        JsonObject second = (JsonObject) e.reexecute(first, new JsonObject().put("a", "3"))
+                .timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(Exclaim.executions.get()).isEqualTo(5);
+        assertThat(second.getString("x")).isEqualTo("3!");
+        assertThat(second.getString("y")).isEqualTo("2!");
+        assertThat(second.getString("z")).isEqualTo("3!!");
+        assertThat(second.getString(Engine.DOC_UUID)).isNotEqualTo(first.getString(Engine.DOC_UUID));
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testReexecuteRunsEverythingAfterTemplatedRegister(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { exclaim: { of: constant }, register: x }, " +
+                "{ exclaim: { of: \"{{ doc.a }}\" }, register: \"{{ doc.slot }}\" } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Exclaim.executions.set(0);
+        JsonObject first = (JsonObject) e.execute(new JsonObject().put("a", "1").put("slot", "y"))
+                .timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(Exclaim.executions.get()).isEqualTo(2);
+
+        // the second step could have overwritten x, so x must be worked out again too
+        JsonObject second = (JsonObject) e.reexecute(first, new JsonObject().put("slot", "x"))
+                .timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(Exclaim.executions.get()).isEqualTo(4);
+        assertThat(second.getString("x")).isEqualTo("1!");
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testCommentIsMarkupInControlValues(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { exclaim: { of: a }, register: \"{# the key #}x\" } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        JsonObject doc = (JsonObject) e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(doc.getString("x")).isEqualTo("a!");
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testStepCache(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { name: shout, exclaim: { of: \"{{ doc.q }}\" }, register: x, cache: PT1M } ]");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Exclaim.executions.set(0);
+        List<String> results = Flowable.just("a", "a", "b")
+                .concatMapSingle(q -> e.execute(new JsonObject().put("q", q)))
+                .map(doc -> ((JsonObject) doc).getString("x"))
+                .toList()
+                .timeout(2, TimeUnit.SECONDS)
+                .blockingGet();
+
+        assertThat(results).containsExactly("a!", "a!", "b!");
+        assertThat(Exclaim.executions.get()).isEqualTo(2);
+        JsonObject cache = e.getMetrics().getJsonObject("cache.shout");
+        assertThat(cache.getLong("hits")).isEqualTo(1);
+        assertThat(cache.getLong("misses")).isEqualTo(2);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testCachedStepsNeedDistinctNames() {
+        assertThatExceptionOfType(IllegalArgumentException.class).isThrownBy(() -> new Engine(
+                "[ { exclaim: { of: a }, register: x, cache: true }, { exclaim: { of: b }, register: y, cache: true } ]"))
+                .withMessageContaining("cache.exclaim");
+        Engine e = new Engine("[ { name: a, exclaim: { of: a }, register: x, cache: true }, " +
+                "{ name: b, exclaim: { of: b }, register: y, cache: true } ]");
+        assertThat(e.hasMetrics("cache.a") && e.hasMetrics("cache.b")).isTrue();
+    }
+}
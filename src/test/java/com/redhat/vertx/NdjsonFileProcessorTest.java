@@ -0,0 +1,47 @@
+package com.redhat.vertx;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ResourceUtils;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class NdjsonFileProcessorTest {
+
+    @Test
+    public void testProcessFile(Vertx vertx, VertxTestContext testContext) throws IOException {
+        Path input = Files.createTempFile("ndjson-in", ".json");
+        Path output = Files.createTempFile("ndjson-out", ".json");
+        Files.write(input, List.of("{\"n\":1}", "", "not json", "{\"n\":3}"), StandardCharsets.UTF_8);
+
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        long count = new NdjsonFileProcessor(e, 2).process(input.toString(), output.toString())
+                .timeout(5, TimeUnit.SECONDS)
+                .blockingGet();
+
+        List<String> lines = Files.readAllLines(output, StandardCharsets.UTF_8);
+        assertThat(count).isEqualTo(3);
+        assertThat(lines).hasSize(3);
+        assertThat(new JsonObject(lines.get(0)).getInteger("n")).isEqualTo(1);
+        assertThat(new JsonObject(lines.get(0)).getString("greetings")).isEqualTo("hello, Jason");
+        assertThat(new JsonObject(lines.get(1)).containsKey("error")).isTrue();
+        assertThat(new JsonObject(lines.get(2)).getInteger("n")).isEqualTo(3);
+
+        Files.delete(input);
+        Files.delete(output);
+        testContext.completeNow();
+    }
+}
@@ -0,0 +1,48 @@
+package com.redhat.vertx;
+
+import java.util.concurrent.TimeUnit;
+
+import com.redhat.ResourceUtils;
+import io.vertx.core.json.JsonObject;
+import io.vertx.junit5.VertxExtension;
+import io.vertx.junit5.VertxTestContext;
+import io.vertx.reactivex.core.Vertx;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ExtendWith(VertxExtension.class)
+public class ShardedEngineTest {
+
+    @Test
+    public void testShardsByKey(Vertx vertx, VertxTestContext testContext) {
+        ShardedEngine engine = new ShardedEngine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"),
+                new JsonObject(), 4);
+        engine.deploy(vertx).blockingAwait();
+        // four engines and the one logger they share
+        assertThat(vertx.deploymentIDs()).hasSize(5);
+
+        JsonObject doc = new JsonObject().put("id", "order-17");
+        assertThat(engine.shardFor(doc)).isSameAs(engine.shardFor(doc.copy()));
+        JsonObject result = (JsonObject) engine.execute(doc).timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(result.getString("id")).isEqualTo("order-17");
+
+        assertThat(engine.getMetrics().getJsonArray("shards")).hasSize(4);
+        engine.undeploy(vertx).blockingAwait();
+        assertThat(vertx.deploymentIDs()).isEmpty();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testRoundRobinWithoutKey(Vertx vertx, VertxTestContext testContext) {
+        ShardedEngine engine = new ShardedEngine(ResourceUtils.fileContentsFromResource("hello-world-pipeline.json"),
+                new JsonObject(), 2);
+        engine.deploy(vertx).blockingAwait();
+
+        Engine first = engine.shardFor(new JsonObject());
+        assertThat(engine.shardFor(new JsonObject())).isNotSameAs(first);
+        assertThat(engine.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet()).isNotNull();
+        testContext.completeNow();
+    }
+}
@@ -45,6 +45,7 @@ public class PipelineIntegrationTest {
         }
     }
 
+    @ReadsVariablesOnly
     @MetaInfServices(Step.class)
     public static class Sleep extends AbstractStep {
         static Logger logger = Logger.getLogger(Sleep.class.getName());
@@ -132,6 +133,18 @@ public class PipelineIntegrationTest {
         testContext.completeNow();
     }
 
+    @Test
+    public void returnSeesValuesRegisteredByTheSection(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("{ section: { steps: [ " +
+                "{ section: { steps: [ { copy: { from: hello }, register: greeting } ] } }, " +
+                "{ copy: { from: \"{{ doc.greeting }}\" }, register: echo } ] }, " +
+                "return: \"{{ doc.greeting }}, {{ doc.echo }}\" }");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Object result = e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(result).isEqualTo("hello, hello");
+        testContext.completeNow();
+    }
+
     @Test
     public void testConditionalExecution(Vertx vertx, VertxTestContext testContext) throws Exception {
         Engine e = new Engine(ResourceUtils.fileContentsFromResource("com/redhat/vertx/pipeline/test-conditional-execution.yaml"));
@@ -1,6 +1,8 @@
 package com.redhat.vertx.pipeline;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
 
@@ -11,6 +13,8 @@ import com.redhat.vertx.pipeline.steps.Copy;
 import com.redhat.vertx.pipeline.templates.MissingParameterException;
 import io.reactivex.Completable;
 import io.reactivex.Maybe;
+import io.reactivex.subjects.CompletableSubject;
+import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
 import io.vertx.junit5.Timeout;
 import io.vertx.junit5.VertxExtension;
@@ -115,4 +119,96 @@ class SectionTest {
         assertThat(System.currentTimeMillis() - startTime).isLessThan(1000);
         testContext.completeNow();
     }
+
+    /**
+     * Finishes once the step with id <code>await</code> (if any) has started, so two steps awaiting each other
+     * finish only if they run side by side.
+     */
+    @ReadsVariablesOnly
+    @MetaInfServices(Step.class)
+    public static class Trace extends AbstractStep {
+        static final Map<String, CompletableSubject> started = new ConcurrentHashMap<>();
+
+        static CompletableSubject startOf(String id) {
+            return started.computeIfAbsent(id, k -> CompletableSubject.create());
+        }
+
+        @Override
+        public Maybe<Object> execute(JsonObject env) {
+            String id = env.getString("id");
+            String await = env.getString("await");
+            startOf(id).onComplete();
+            return (await == null ? Completable.complete() : startOf(await)).andThen(Maybe.just(id));
+        }
+    }
+
+    /**
+     * Never finishes, and notes when it's cancelled
+     */
+    @ReadsVariablesOnly
+    @MetaInfServices(Step.class)
+    public static class Pending extends AbstractStep {
+        static volatile CompletableSubject cancelled = CompletableSubject.create();
+
+        @Override
+        public Maybe<Object> execute(JsonObject env) {
+            CompletableSubject c = cancelled;
+            return Maybe.never().doOnDispose(c::onComplete);
+        }
+    }
+
+    @Test
+    @Timeout(value = 5, timeUnit = TimeUnit.SECONDS)
+    public void testDataflowSectionCancelsPendingSteps(Vertx vertx, VertxTestContext testContext) {
+        // pending waits for copy to register a, and never finishes, so the section times out while it runs
+        Engine e = new Engine("{ concurrent: dataflow, timeout: \"0.250S\", steps: [ " +
+                "{ copy: { from: one }, register: a }, " +
+                "{ pending: { after: \"{{ doc.a }}\" }, register: b } ] }");
+        vertx.rxDeployVerticle(e).blockingGet();
+        Pending.cancelled = CompletableSubject.create();
+        e.execute(new JsonObject()).test().awaitDone(2, TimeUnit.SECONDS).assertError(TimeoutException.class);
+
+        assertThat(Pending.cancelled.blockingAwait(2, TimeUnit.SECONDS)).isTrue();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void testDataflowSchedule(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine(ResourceUtils.fileContentsFromResource("com/redhat/vertx/pipeline/dataflow-pipeline.yml"));
+        vertx.rxDeployVerticle(e).blockingGet();
+        Trace.started.clear();
+        // Run serially, one and two would wait for each other forever
+        JsonObject doc = (JsonObject) e.execute(new JsonObject()).timeout(2, TimeUnit.SECONDS).blockingGet();
+        assertThat(doc.getString("d")).isEqualTo("a b foo");
+        assertThat(doc.getString("c")).isEqualTo("bar");
+        assertThat(doc.getString("a")).isEqualTo("last");
+        testContext.completeNow();
+    }
+
+    @Test
+    void testDataflowPrerequisites() {
+        var section = new Section();
+        section.init(null, new JsonObject(YamlParser.parse(
+                ResourceUtils.fileContentsFromResource("com/redhat/vertx/pipeline/dataflow-pipeline.yml"))))
+                .blockingGet();
+        assertThat(section.getPrerequisites()).containsExactly(
+                List.of(), List.of(), List.of(), List.of(0, 1, 2), List.of(2, 3), List.of(0, 3));
+
+        var opaque = new Section();
+        opaque.init(null, new JsonObject(YamlParser.parse("{ concurrent: dataflow, steps: [ " +
+                "{ copy: { from: foo }, register: a }, { long_sleep: {} }, { copy: { from: bar }, register: b } ] }")))
+                .blockingGet();
+        // long_sleep might read anything from the document, so it waits for a, and b waits for it
+        assertThat(opaque.getPrerequisites()).containsExactly(List.of(), List.of(0), List.of(1));
+    }
+
+    @Test
+    public void testDocumentReferences() {
+        assertThat(DocumentReferences.find(new JsonObject()
+                .put("from", "{{doc.a}} and {{ doc[\"b\"] }} but not doc.c or {{ stepdef.doc }}")
+                .put("nested", new JsonArray().add("{% if doc.d %}x{% endif %}"))))
+                .containsExactlyInAnyOrder("a", "b", "d");
+        assertThat(DocumentReferences.find(new JsonObject().put("from", "{{ doc|tojson }}")))
+                .containsExactly(DocumentReferences.ANY);
+    }
 }
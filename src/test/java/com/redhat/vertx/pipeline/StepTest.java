@@ -1,8 +1,17 @@
 package com.redhat.vertx.pipeline;
 
+import com.redhat.vertx.pipeline.steps.Copy;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 
 class StepTest {
 
@@ -14,5 +23,57 @@ class StepTest {
         final Step testClass = new LongNameClassNameTester();
 
         assertThat(testClass.getShortName()).isEqualTo("long_name_class_name_tester");
+        assertThat(Step.shortNameOf(LongNameClassNameTester.class)).isEqualTo("long_name_class_name_tester");
+    }
+
+    @Test
+    void registryMakesNewSteps() {
+        StepRegistry registry = StepRegistry.getInstance();
+        Step first = registry.newStep("copy").orElseThrow();
+        Step second = registry.newStep("copy").orElseThrow();
+
+        assertThat(first).isInstanceOf(Copy.class);
+        assertThat(second).isNotSameAs(first);
+        assertThat(registry.newStep("section").orElseThrow()).isInstanceOf(Section.class);
+        assertThat(registry.newStep("no_such_step")).isEmpty();
+    }
+
+    public static class Twin1 extends AbstractStep {
+        @Override
+        public String getShortName() {
+            return "twin";
+        }
+    }
+
+    public static class Twin2 extends AbstractStep {
+        @Override
+        public String getShortName() {
+            return "twin";
+        }
+    }
+
+    @Test
+    void registryRejectsDuplicateShortNames(@TempDir Path dir) throws IOException {
+        Path services = dir.resolve("META-INF/services/" + Step.class.getName());
+        Files.createDirectories(services.getParent());
+        Files.write(services, (Twin1.class.getName() + "\n" + Twin2.class.getName() + "\n").getBytes());
+
+        StepRegistry registry = StepRegistry.getInstance();
+        try (URLClassLoader cl = new URLClassLoader(new URL[] { dir.toUri().toURL() }, getClass().getClassLoader())) {
+            assertThatThrownBy(() -> registry.register(cl))
+                    .isInstanceOf(IllegalStateException.class)
+                    .hasMessageContaining("twin");
+        }
+        // and what was registered before is untouched
+        assertThat(registry.newStep("copy").orElseThrow()).isInstanceOf(Copy.class);
+        assertThat(registry.newStep("twin")).isEmpty();
+    }
+
+    @Test
+    void registryRefreshKeepsSteps() {
+        StepRegistry registry = StepRegistry.getInstance();
+        registry.newStep("copy");
+        registry.refresh();
+        assertThat(registry.newStep("copy").orElseThrow()).isInstanceOf(Copy.class);
     }
 }
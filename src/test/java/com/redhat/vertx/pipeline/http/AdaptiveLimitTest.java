@@ -0,0 +1,57 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class AdaptiveLimitTest {
+    private static final long FAST = TimeUnit.MILLISECONDS.toNanos(10);
+    private static final long SLOW = TimeUnit.MILLISECONDS.toNanos(200);
+
+    @Test
+    public void testAimdGrowsWhileBusyAndBacksOff() {
+        AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 10, 1, 100, Duration.ofMillis(100), 0.5);
+        assertThat(limit.sample(FAST, 2, false)).isEqualTo(10); // mostly idle: no reason to grow
+        assertThat(limit.sample(FAST, 10, false)).isEqualTo(11);
+        assertThat(limit.sample(FAST, 11, false)).isEqualTo(12);
+        assertThat(limit.sample(SLOW, 12, false)).isEqualTo(6);
+        assertThat(limit.sample(FAST, 6, true)).isEqualTo(3);
+    }
+
+    @Test
+    public void testGradientFollowsLatency() {
+        AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.GRADIENT, 20, 1, 1000, null, 0.9);
+        for (int i = 0; i < 50; i++) {
+            limit.sample(FAST, limit.getLimit(), false);
+        }
+        int grown = limit.getLimit();
+        assertThat(grown).isGreaterThan(20);
+
+        for (int i = 0; i < 20; i++) {
+            limit.sample(SLOW, limit.getLimit(), false);
+        }
+        assertThat(limit.getLimit()).isLessThan(grown);
+    }
+
+    @Test
+    public void testZeroRttKeepsALimit() {
+        AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.GRADIENT, 5, 0, 10, null, 0.9);
+        for (int i = 0; i < 50; i++) {
+            assertThat(limit.sample(0, limit.getLimit(), false)).isBetween(1, 10);
+            assertThat(limit.sample(FAST, limit.getLimit(), i % 3 == 0)).isBetween(1, 10);
+        }
+    }
+
+    @Test
+    public void testLimitStaysInBounds() {
+        AdaptiveLimit limit = new AdaptiveLimit(AdaptiveLimit.Algorithm.AIMD, 3, 2, 4, null, 0.1);
+        for (int i = 0; i < 10; i++) {
+            limit.sample(FAST, 4, false);
+        }
+        assertThat(limit.getLimit()).isEqualTo(4);
+        assertThat(limit.sample(FAST, 4, true)).isEqualTo(2);
+    }
+}
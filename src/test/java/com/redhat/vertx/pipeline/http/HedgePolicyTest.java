@@ -0,0 +1,86 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.redhat.vertx.AdmissionControl;
+import io.reactivex.Single;
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.json.JsonObject;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HedgePolicyTest {
+    private static final long DELAY_MILLIS = 100;
+
+    private final HedgePolicy policy = HedgePolicy.fromConfig(new JsonObject().put("minDelay", "PT0.1S"));
+    private final LatencyTracker latencies = new LatencyTracker(100);
+    private final RetryBudget budget = new RetryBudget(0.1, 10);
+    private final AdmissionControl bulkhead = new AdmissionControl("test", 2, 10, AdmissionControl.Overflow.WAIT);
+    private final AtomicInteger sent = new AtomicInteger();
+    private final List<Long> sentAt = new ArrayList<>();
+    private final AtomicBoolean slowDisposed = new AtomicBoolean();
+
+    HedgePolicyTest() {
+        for (int i = 0; i < 20; i++) {
+            latencies.record(10);
+        }
+    }
+
+    /**
+     * The first request sent is answered after ten seconds, and any after it right away
+     */
+    private Single<String> attempt() {
+        return bulkhead.admit(Single.defer(() -> {
+            synchronized (sentAt) {
+                sentAt.add(System.nanoTime());
+            }
+            if (sent.incrementAndGet() == 1) {
+                return Single.timer(10, TimeUnit.SECONDS).map(t -> "slow").doOnDispose(() -> slowDisposed.set(true));
+            }
+            return Single.just("fast");
+        }));
+    }
+
+    @Test
+    public void testHedgeWinsOverSlowResponse() {
+        long start = System.nanoTime();
+        policy.apply(HttpMethod.GET, attempt(), latencies, budget)
+                .test()
+                .awaitDone(2, TimeUnit.SECONDS)
+                .assertValue("fast");
+
+        assertThat(sent.get()).isEqualTo(2);
+        assertThat(TimeUnit.NANOSECONDS.toMillis(sentAt.get(1) - start)).isGreaterThanOrEqualTo(DELAY_MILLIS);
+        assertThat(slowDisposed.get()).isTrue();
+        assertThat(bulkhead.metrics().getInteger("inFlight")).isZero();
+        assertThat(budget.metrics().getLong("hedges")).isEqualTo(1);
+    }
+
+    @Test
+    public void testNoHedgeBeforeTheDelay() {
+        var observer = policy.apply(HttpMethod.GET, attempt(), latencies, budget).test();
+        observer.awaitDone(DELAY_MILLIS / 2, TimeUnit.MILLISECONDS);
+        assertThat(sent.get()).isEqualTo(1);
+        observer.dispose();
+        assertThat(slowDisposed.get()).isTrue();
+        assertThat(bulkhead.metrics().getInteger("inFlight")).isZero();
+    }
+
+    @Test
+    public void testNonIdempotentMethodsAreNotHedged() {
+        for (HttpMethod method : new HttpMethod[] { HttpMethod.POST, HttpMethod.PATCH }) {
+            sent.set(0);
+            var observer = policy.apply(method, attempt(), latencies, budget).test();
+            observer.awaitDone(DELAY_MILLIS * 3, TimeUnit.MILLISECONDS);
+            observer.assertNotComplete();
+            assertThat(sent.get()).as(method.name()).isEqualTo(1);
+            observer.dispose();
+        }
+        assertThat(bulkhead.metrics().getInteger("inFlight")).isZero();
+    }
+}
@@ -0,0 +1,86 @@
+package com.redhat.vertx.pipeline.http;
+
+import java.util.Map;
+
+import io.vertx.core.http.HttpMethod;
+import io.vertx.core.http.impl.headers.VertxHttpHeaders;
+import io.vertx.reactivex.core.MultiMap;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpResponseCacheTest {
+
+    @Test
+    public void testParseCacheControl() {
+        Map<String, String> cc = HttpResponseCache.Entry.parseCacheControl(
+                "Public, max-age=\"60\", no-cache=\"Set-Cookie, max-age\", stale-while-revalidate=30");
+        assertThat(cc).containsOnlyKeys("public", "max-age", "no-cache", "stale-while-revalidate");
+        assertThat(cc.get("public")).isNull();
+        assertThat(cc.get("max-age")).isEqualTo("60");
+        assertThat(cc.get("no-cache")).isEqualTo("Set-Cookie, max-age");
+        assertThat(cc.get("stale-while-revalidate")).isEqualTo("30");
+    }
+
+    @Test
+    public void testFreshness() {
+        String date = "Sun, 06 Nov 1994 08:49:37 GMT";
+        String anHourLater = "Sun, 06 Nov 1994 09:49:37 GMT";
+        assertThat(freshness("max-age=60", anHourLater, date)).isEqualTo(60_000);
+        assertThat(freshness("", anHourLater, date)).isEqualTo(3_600_000);
+        assertThat(freshness("", "0", date)).isZero();
+        assertThat(freshness("", null, date)).isZero();
+        assertThat(freshness("no-cache, max-age=60", null, null)).isZero();
+        // naming fields only keeps them from being reused, and only bodies are kept
+        assertThat(freshness("no-cache=\"Set-Cookie\", max-age=60", null, null)).isEqualTo(60_000);
+    }
+
+    private static long freshness(String cacheControl, String expires, String date) {
+        return HttpResponseCache.Entry.freshnessMillis(HttpResponseCache.Entry.parseCacheControl(cacheControl),
+                expires, date);
+    }
+
+    @Test
+    public void testKeysDifferByHeaders() {
+        MultiMap alice = new MultiMap(new VertxHttpHeaders()).add("Accept", "text/plain").add("Authorization", "alice");
+        MultiMap alsoAlice = new MultiMap(new VertxHttpHeaders()).add("authorization", "alice").add("accept", "text/plain");
+        MultiMap bob = new MultiMap(new VertxHttpHeaders()).add("Accept", "text/plain").add("Authorization", "bob");
+
+        String key = HttpResponseCache.keyFor(HttpMethod.GET, "http://host/x", alice);
+        assertThat(HttpResponseCache.keyFor(HttpMethod.GET, "http://host/x", alsoAlice)).isEqualTo(key);
+        assertThat(HttpResponseCache.keyFor(HttpMethod.GET, "http://host/x", bob)).isNotEqualTo(key);
+        assertThat(key).doesNotContain("alice");
+        assertThat(HttpResponseCache.hasCredentials(alice)).isTrue();
+    }
+
+    @Test
+    public void testDiskIndexStaysWithinSize() {
+        HttpResponseCache.DiskIndex index = new HttpResponseCache.DiskIndex(100);
+        long now = 1_000_000;
+        assertThat(index.add("a", 40, now + 60_000, now)).isEmpty();
+        assertThat(index.add("b", 40, now + 60_000, now)).isEmpty();
+        assertThat(index.add("c", 40, now + 60_000, now)).containsExactly("a");
+        assertThat(index.add("b", 50, now + 60_000, now)).isEmpty(); // replaces the old b
+        assertThat(index.add("d", 30, now + 60_000, now)).containsExactly("c");
+        assertThat(index.add("huge", 101, now + 60_000, now)).isNull();
+        assertThat(index.size()).isEqualTo(2);
+        assertThat(index.bytes()).isEqualTo(80);
+
+        assertThat(index.remove("b")).isEqualTo(now + 60_000);
+        assertThat(index.remove("b")).isEqualTo(-1);
+        assertThat(index.bytes()).isEqualTo(30);
+    }
+
+    @Test
+    public void testDiskIndexRemovesExpiredFiles() {
+        HttpResponseCache.DiskIndex index = new HttpResponseCache.DiskIndex(1000);
+        long now = 1_000_000;
+        index.add("short", 10, now + 1_000, now);
+        index.add("long", 10, now + 600_000, now);
+        // expired files are looked for at most once a minute
+        assertThat(index.add("a", 10, now + 600_000, now + 30_000)).isEmpty();
+        assertThat(index.add("b", 10, now + 600_000, now + 90_000)).containsExactly("short");
+        assertThat(index.size()).isEqualTo(3);
+        assertThat(index.bytes()).isEqualTo(30);
+    }
+}
@@ -3,12 +3,15 @@ package com.redhat.vertx.pipeline.json;
 import java.time.Instant;
 import java.time.LocalDateTime;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.redhat.ResourceUtils;
 import com.redhat.vertx.pipeline.templates.JinjaTemplateProcessor;
+import com.redhat.vertx.pipeline.templates.TemplateProcessor;
 import io.vertx.core.buffer.Buffer;
 import io.vertx.core.json.JsonArray;
 import io.vertx.core.json.JsonObject;
@@ -141,4 +144,43 @@ public class TestTemplatedJsonObject {
         assertEquals(JsonObjectMapView.class,tjo.getMap().get("doc").getClass());
         assertEquals("[\"This\",\"should\",\"not\",\"{{var}}\",\"be\",\"substituted\"]",tjo.getValue("q"));
     }
+
+    @Test
+    public void testValuesRenderedOnce() {
+        AtomicInteger renders = new AtomicInteger();
+        TemplateProcessor counting = (env, str) -> {
+            renders.incrementAndGet();
+            return str.toUpperCase();
+        };
+        JsonObject jo = new JsonObject().put("url", "http://example.com").put("nested", new JsonObject().put("a", "b"));
+        TemplatedJsonObject tjo = new TemplatedJsonObject(jo, counting);
+
+        assertEquals("HTTP://EXAMPLE.COM", tjo.getString("url"));
+        assertEquals("HTTP://EXAMPLE.COM", tjo.getValue("url", "none"));
+        tjo.getMap().forEach((k, v) -> assertNotNull(v));
+        assertEquals("B", tjo.getJsonObject("nested").getString("a"));
+        assertEquals("B", tjo.getJsonObject("nested").getString("a"));
+        assertEquals(2, renders.get());
+
+        tjo.invalidate();
+        assertEquals("HTTP://EXAMPLE.COM", tjo.getString("url"));
+        assertEquals(3, renders.get());
+    }
+
+    @Test
+    public void testNestedViewsReused() {
+        JsonObject doc = new JsonObject().put("dict", new JsonObject().put("a", "aardvark"))
+                .put("list", new JsonArray().add(new JsonObject().put("b", "binary")));
+        JsonObjectMapView view = new JsonObjectMapView(new JsonObject().put("doc", doc));
+
+        Map<?, ?> docView = (Map<?, ?>) view.get("doc");
+        assertThat(view.get("doc")).isSameAs(docView);
+        assertThat(docView.get("dict")).isSameAs(docView.get("dict"));
+        List<?> list = (List<?>) docView.get("list");
+        assertThat(list.get(0)).isSameAs(list.get(0));
+        assertEquals("binary", ((Map<?, ?>) list.get(0)).get("b"));
+
+        doc.put("dict", new JsonObject().put("a", "anteater"));
+        assertEquals("anteater", ((Map<?, ?>) docView.get("dict")).get("a"));
+    }
 }
@@ -6,9 +6,12 @@ import java.util.logging.Logger;
 
 import com.redhat.ResourceUtils;
 import com.redhat.vertx.Engine;
+import com.redhat.vertx.Result;
 import com.redhat.vertx.pipeline.AbstractStep;
+import com.redhat.vertx.pipeline.Blocking;
 import com.redhat.vertx.pipeline.Step;
 import com.redhat.vertx.pipeline.templates.MissingParameterException;
+import io.reactivex.Flowable;
 import io.reactivex.Maybe;
 import io.vertx.core.json.JsonObject;
 import io.vertx.junit5.VertxExtension;
@@ -19,6 +22,7 @@ import org.junit.jupiter.api.extension.ExtendWith;
 import org.kohsuke.MetaInfServices;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -40,6 +44,72 @@ public class AbstractStepTest {
         }
     }
 
+    @Blocking("slow")
+    @MetaInfServices(Step.class)
+    public static class ThreadName extends AbstractStep {
+        @Override
+        public Object executeFast(JsonObject env) {
+            return Thread.currentThread().getName();
+        }
+    }
+
+    @Test
+    public void testBlockingStepRunsOnWorkerPool(Vertx vertx, VertxTestContext testContext) {
+        Engine e = new Engine("[ { thread_name: {}, register: worker }, " +
+                "{ thread_name: {}, register: loop, blocking: false } ]",
+                new JsonObject().put("engine.workers.slow.size", 2));
+        vertx.rxDeployVerticle(e).blockingGet();
+        JsonObject newDoc = (JsonObject) e.execute(new JsonObject()).timeout(1, TimeUnit.SECONDS).blockingGet();
+        assertThat(newDoc.getString("worker")).startsWith("engine-slow");
+        assertThat(newDoc.getString("loop")).doesNotStartWith("engine-slow");
+
+        JsonObject pool = e.getMetrics().getJsonObject("workers").getJsonObject("slow");
+        assertThat(pool.getInteger("size")).isEqualTo(2);
+        assertThat(pool.getLong("completed")).isEqualTo(1);
+        testContext.completeNow();
+    }
+
+    @MetaInfServices(Step.class)
+    public static class BlockingSleep extends AbstractStep {
+        @Override
+        public Object executeFast(JsonObject env) {
+            try {
+                Thread.sleep(env.getLong("millis"));
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return "awake";
+        }
+    }
+
+    @Test
+    public void testVirtualThreadsOutscaleWorkerPool(Vertx vertx, VertxTestContext testContext) {
+        assumeTrue(Runtime.version().feature() >= 21, "Virtual threads need Java 21");
+        JsonObject config = new JsonObject().put("engine.workers.small.size", 4);
+        Engine pooled = new Engine("[ { blocking_sleep: { millis: 50 }, register: z, blocking: small } ]", config);
+        Engine virtual = new Engine("[ { blocking_sleep: { millis: 50 }, register: z, blocking: virtual } ]", config);
+        vertx.rxDeployVerticle(pooled).blockingGet();
+        vertx.rxDeployVerticle(virtual).blockingGet();
+
+        long pooledMillis = timeBatch(pooled, 100);
+        long virtualMillis = timeBatch(virtual, 100);
+        // 100 x 50ms on 4 threads takes at least 1250ms; on virtual threads they all sleep at once
+        assertThat(pooledMillis).isGreaterThanOrEqualTo(1250);
+        assertThat(virtualMillis).isLessThan(pooledMillis / 2);
+        testContext.completeNow();
+    }
+
+    private static long timeBatch(Engine e, int count) {
+        long start = System.currentTimeMillis();
+        long successes = e.execute(Flowable.range(0, count).map(i -> new JsonObject()), count, false)
+                .filter(Result::isSuccess)
+                .count()
+                .timeout(10, TimeUnit.SECONDS)
+                .blockingGet();
+        assertThat(successes).isEqualTo(count);
+        return System.currentTimeMillis() - start;
+    }
+
     @Test
     public void testSequencingStepsWithIncompleteEnvironments(Vertx vertx, VertxTestContext testContext) throws Exception {
         Engine e = new Engine(ResourceUtils.fileContentsFromResource("abstract-step-test-pipeline.json"));
@@ -1,6 +1,7 @@
 package com.redhat.vertx.pipeline.step;
 
 import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Handler;
@@ -15,7 +16,10 @@ import com.github.tomakehurst.wiremock.matching.MatchResult;
 import com.github.tomakehurst.wiremock.matching.StringValuePattern;
 import com.redhat.ResourceUtils;
 import com.redhat.vertx.Engine;
+import com.redhat.vertx.Result;
+import com.redhat.vertx.pipeline.http.CircuitBreaker;
 import com.redhat.vertx.pipeline.steps.HttpClient;
+import io.reactivex.Flowable;
 import io.reactivex.disposables.Disposable;
 import io.reactivex.internal.disposables.DisposableHelper;
 import io.vertx.core.json.JsonObject;
@@ -28,6 +32,7 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
+import static com.github.tomakehurst.wiremock.stubbing.Scenario.STARTED;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -159,4 +164,221 @@ public class HttpClientIntegrationTest {
         logger.info("Complete.");
     }
 
+    @Test
+    public void cachedResponse(Vertx vertx, VertxTestContext testContext) throws Exception {
+        JsonObject payload = new JsonObject().put("cached", true);
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Cache-Control", "public, max-age=60")
+                        .withBody(payload.encode())));
+
+        Engine engine = new Engine(
+                ResourceUtils.fileContentsFromResource(
+                        "com/redhat/vertx/pipeline/step/httpClientIntegrationTest.yaml"),
+                new JsonObject().put("http.cache.enabled", true));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        for (int i = 0; i < 3; i++) {
+            JsonObject d = (JsonObject) engine.execute(new JsonObject().put("url", url)).timeout(5, TimeUnit.SECONDS).blockingGet();
+            assertThat(d.getJsonObject("response")).isEqualTo(payload);
+        }
+
+        verify(1, getRequestedFor(urlMatching("/my/resource")));
+        assertThat(engine.getMetrics().getJsonObject("http.cache").getLong("hits")).isEqualTo(2);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void revalidatedResponse(Vertx vertx, VertxTestContext testContext) throws Exception {
+        JsonObject payload = new JsonObject().put("revalidated", true);
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("Cache-Control", "no-cache")
+                        .withHeader("ETag", "\"v1\"")
+                        .withBody(payload.encode())));
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304)));
+
+        Engine engine = new Engine(
+                ResourceUtils.fileContentsFromResource(
+                        "com/redhat/vertx/pipeline/step/httpClientIntegrationTest.yaml"),
+                new JsonObject().put("http.cache.enabled", true));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        for (int i = 0; i < 2; i++) {
+            JsonObject d = (JsonObject) engine.execute(new JsonObject().put("url", url)).timeout(5, TimeUnit.SECONDS).blockingGet();
+            assertThat(d.getJsonObject("response")).isEqualTo(payload);
+        }
+
+        verify(1, getRequestedFor(urlMatching("/my/resource")).withHeader("If-None-Match", equalTo("\"v1\"")));
+        assertThat(engine.getMetrics().getJsonObject("http.cache").getLong("revalidated")).isEqualTo(1);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void cacheKeepsUsersApart(Vertx vertx, VertxTestContext testContext) throws Exception {
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withHeader("Cache-Control", "max-age=60")
+                        .withBody("private")));
+        wireMockServer.stubFor(get(urlEqualTo("/my/public"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withHeader("Cache-Control", "public, max-age=60")
+                        .withBody("public")));
+
+        Engine engine = new Engine("[ { http_client: { url: \"{{ doc.url }}\", " +
+                "headers: { Authorization: \"{{ doc.user }}\" } }, register: response } ]",
+                new JsonObject().put("http.cache.enabled", true));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String base = "http://localhost:" + wireMockServer.port() + "/my/";
+        for (String user : Arrays.asList("alice", "alice", "bob")) {
+            engine.execute(new JsonObject().put("url", base + "resource").put("user", user))
+                    .timeout(5, TimeUnit.SECONDS).blockingGet();
+            engine.execute(new JsonObject().put("url", base + "public").put("user", user))
+                    .timeout(5, TimeUnit.SECONDS).blockingGet();
+        }
+
+        // not public, so never kept
+        verify(3, getRequestedFor(urlEqualTo("/my/resource")));
+        // public, but kept for each user apart
+        verify(2, getRequestedFor(urlEqualTo("/my/public")));
+        testContext.completeNow();
+    }
+
+    @Test
+    public void cacheHonorsAge(Vertx vertx, VertxTestContext testContext) throws Exception {
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withHeader("Cache-Control", "max-age=60")
+                        .withHeader("Age", "60")
+                        .withBody("old")));
+
+        Engine engine = new Engine("[ { http_client: { url: \"{{ doc.url }}\" }, register: response } ]",
+                new JsonObject().put("http.cache.enabled", true));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        for (int i = 0; i < 2; i++) {
+            engine.execute(new JsonObject().put("url", url)).timeout(5, TimeUnit.SECONDS).blockingGet();
+        }
+
+        verify(2, getRequestedFor(urlEqualTo("/my/resource")));
+        testContext.completeNow();
+    }
+
+    @Test
+    public void coalescedRequests(Vertx vertx, VertxTestContext testContext) throws Exception {
+        JsonObject payload = new JsonObject().put("popular", true);
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withFixedDelay(300)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody(payload.encode())));
+
+        Engine engine = new Engine(
+                ResourceUtils.fileContentsFromResource(
+                        "com/redhat/vertx/pipeline/step/httpClientIntegrationTest.yaml"
+                ), new JsonObject().put("http.coalesce", true));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        List<Result> results = engine.execute(Flowable.range(0, 5).map(i -> new JsonObject().put("url", url)), 5, false)
+                .toList()
+                .timeout(5, TimeUnit.SECONDS)
+                .blockingGet();
+
+        assertThat(results).hasSize(5).allMatch(Result::isSuccess);
+        results.forEach(r -> assertThat(((JsonObject) r.getOutput()).getJsonObject("response")).isEqualTo(payload));
+        verify(1, getRequestedFor(urlMatching("/my/resource")));
+        assertThat(engine.getMetrics().getJsonObject("http.coalescing").getLong("coalesced")).isEqualTo(4);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void sharedClientPerHost(Vertx vertx, VertxTestContext testContext) throws Exception {
+        wireMockServer.stubFor(get(urlMatching("/my/.*"))
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("ok")));
+
+        Engine engine = new Engine("[ { http_client: { url: \"{{ doc.url }}/a\" }, register: a }, " +
+                "{ http_client: { url: \"{{ doc.url }}/b\" }, register: b } ]",
+                new JsonObject().put("http.client.maxPoolSize", 4));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my";
+        JsonObject d = (JsonObject) engine.execute(new JsonObject().put("url", url)).timeout(5, TimeUnit.SECONDS).blockingGet();
+        assertThat(d.getString("a")).isEqualTo("ok");
+        assertThat(d.getString("b")).isEqualTo("ok");
+
+        JsonObject clients = engine.getMetrics().getJsonObject("http.clients");
+        assertThat(clients.fieldNames()).containsExactly("localhost:" + wireMockServer.port());
+        JsonObject host = clients.getJsonObject("localhost:" + wireMockServer.port());
+        assertThat(host.getLong("requests")).isEqualTo(2);
+        assertThat(host.getInteger("capacity")).isEqualTo(4);
+        assertThat(host.getInteger("inFlight")).isZero();
+        testContext.completeNow();
+    }
+
+    @Test
+    public void retriedAfterServiceUnavailable(Vertx vertx, VertxTestContext testContext) throws Exception {
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource")).inScenario("flaky")
+                .whenScenarioStateIs(STARTED)
+                .willReturn(aResponse().withStatus(503))
+                .willSetStateTo("recovered"));
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource")).inScenario("flaky")
+                .whenScenarioStateIs("recovered")
+                .willReturn(aResponse()
+                        .withStatus(200)
+                        .withHeader("Content-Type", "text/plain")
+                        .withBody("recovered")));
+
+        Engine engine = new Engine("[ { http_client: { url: \"{{ doc.url }}\", " +
+                "retry: { attempts: 3, backoff: PT0.01S } }, register: response } ]");
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        JsonObject d = (JsonObject) engine.execute(new JsonObject().put("url", url)).timeout(5, TimeUnit.SECONDS).blockingGet();
+
+        assertThat(d.getString("response")).isEqualTo("recovered");
+        verify(2, getRequestedFor(urlMatching("/my/resource")));
+        assertThat(engine.getMetrics().getJsonObject("http.retry").getLong("retries")).isEqualTo(1);
+        testContext.completeNow();
+    }
+
+    @Test
+    public void circuitBreakerOpens(Vertx vertx, VertxTestContext testContext) throws Exception {
+        wireMockServer.stubFor(get(urlEqualTo("/my/resource"))
+                .willReturn(aResponse().withStatus(500)));
+
+        Engine engine = new Engine(
+                ResourceUtils.fileContentsFromResource(
+                        "com/redhat/vertx/pipeline/step/httpClientIntegrationTest.yaml"),
+                new JsonObject()
+                        .put("http.client.breaker", true)
+                        .put("http.client.breaker.window", 2)
+                        .put("http.client.breaker.minCalls", 2)
+                        .put("http.client.breaker.openDuration", "PT10S"));
+        vertx.rxDeployVerticle(engine).timeout(1, TimeUnit.SECONDS).blockingGet();
+        String url = "http://localhost:" + wireMockServer.port() + "/my/resource";
+        List<Result> results = engine.execute(Flowable.range(0, 3).map(i -> new JsonObject().put("url", url)), 1, true)
+                .toList()
+                .timeout(5, TimeUnit.SECONDS)
+                .blockingGet();
+
+        assertThat(results.get(0).getError()).isInstanceOf(HttpClient.HttpResponseStatusException.class);
+        assertThat(results.get(1).getError()).isInstanceOf(HttpClient.HttpResponseStatusException.class);
+        assertThat(results.get(2).getError()).isInstanceOf(CircuitBreaker.CircuitOpenException.class);
+        verify(2, getRequestedFor(urlMatching("/my/resource")));
+        testContext.completeNow();
+    }
 }
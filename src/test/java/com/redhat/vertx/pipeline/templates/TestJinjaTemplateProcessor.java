@@ -9,10 +9,12 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import com.redhat.vertx.pipeline.LogCapturer;
+import io.vertx.core.json.JsonArray;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatExceptionOfType;
 import static org.assertj.core.api.Assertions.fail;
 
 public class TestJinjaTemplateProcessor {
@@ -131,4 +133,73 @@ public class TestJinjaTemplateProcessor {
         assertThat(processor.applyTemplate(context, "{{ nut | regex_replace(na_go) }}")).isEqualTo(context.get("nut"));
     }
 
+    @Test
+    public void testParsedTemplatesAreReused() {
+        var processor = new JinjaTemplateProcessor();
+        var context = new HashMap<String, Object>();
+        context.put("fruit", "Banana");
+
+        assertThat(processor.applyTemplate(context, "just a {fruit}")).isEqualTo("just a {fruit}");
+        assertThat(processor.applyTemplate(context, "{{ fruit }}s")).isEqualTo("Bananas");
+        context.put("fruit", "Mango");
+        assertThat(processor.applyTemplate(context, "{{ fruit }}s")).isEqualTo("Mangos");
+
+        var metrics = processor.metrics();
+        assertThat(metrics.getLong("misses")).isEqualTo(1);
+        assertThat(metrics.getLong("hits")).isEqualTo(1);
+        assertThat(metrics.getLong("size")).isEqualTo(1);
+    }
+
+    @Test
+    public void testEvaluateSingleExpression() {
+        var processor = new JinjaTemplateProcessor();
+        var context = new HashMap<String, Object>();
+        context.put("count", 5);
+        context.put("fruit", Arrays.asList("Banana", "Mango"));
+        context.put("curly", "{{ count }}");
+
+        assertThat(processor.evaluate(context, "{{ count > 3 }}")).isEqualTo(true);
+        assertThat(processor.evaluate(context, "{{ count }}")).isEqualTo(5);
+        assertThat(processor.evaluate(context, "{{ fruit }}")).isEqualTo(new JsonArray().add("Banana").add("Mango"));
+        assertThat(processor.evaluate(context, "{{ fruit[0] }}")).isEqualTo("Banana");
+        assertThat(processor.evaluate(context, "{{ count }} of them")).isEqualTo("5 of them");
+        assertThat(processor.evaluate(context, "{{ curly }}")).isEqualTo("5");
+        assertThatExceptionOfType(MissingParameterException.class)
+                .isThrownBy(() -> processor.evaluate(context, "{{ not_there }}"));
+    }
+
+    @Test
+    public void testSessionRendersEachTemplateInItsOwnScope() {
+        var processor = new JinjaTemplateProcessor();
+        var context = new HashMap<String, Object>();
+        context.put("fruit", "Banana");
+        var session = processor.forEnvironment(context);
+
+        assertThat(session.applyTemplate(context, "{% set fruit = 'Kiwi' %}{{ fruit }}")).isEqualTo("Kiwi");
+        assertThat(session.applyTemplate(context, "{{ fruit }}")).isEqualTo("Banana");
+        assertThatExceptionOfType(MissingParameterException.class)
+                .isThrownBy(() -> session.applyTemplate(context, "{{ not_there }}"));
+        assertThat(session.evaluate(context, "{{ fruit == 'Banana' }}")).isEqualTo(true);
+        assertThat(session.applyTemplate(new HashMap<>(), "plain")).isEqualTo("plain");
+        assertThat(logCapturer.getTestCapturedLog()).isEmpty();
+    }
+
+    @Test
+    public void testSessionForgetsEachTemplateAfterRendering() throws IOException {
+        var processor = new JinjaTemplateProcessor();
+        var context = new HashMap<String, Object>();
+        context.put("fruit", "Banana");
+        var session = processor.forEnvironment(context);
+
+        assertThatExceptionOfType(MissingParameterException.class)
+                .isThrownBy(() -> session.applyTemplate(context, "{{ not_there }}"));
+        // the failure above isn't reported again
+        assertThat(session.applyTemplate(context, "{{ fruit }}")).isEqualTo("Banana");
+        assertThat(session.evaluate(context, "{{ fruit }}")).isEqualTo("Banana");
+        assertThat(logCapturer.getTestCapturedLog()).isEmpty();
+
+        // nor are its blocks
+        assertThat(session.applyTemplate(context, "{% block b %}one{% endblock %}")).isEqualTo("one");
+        assertThat(session.applyTemplate(context, "{% block b %}two{% endblock %}")).isEqualTo("two");
+    }
 }